@@ -0,0 +1,513 @@
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Word-level Huffman Encoding
+ * Like Huffman, but the alphabet is the space-separated tokens of the
+ * file (words or tags) instead of its characters, plus one symbol for
+ * the end of a line. Each token is written as a single code.
+ * Tokens are split on bytes, not characters, so any encoding (UTF-8,
+ * Latin-1, ...) comes back byte for byte.
+ * Codes are canonical, so the header only needs the vocabulary and each
+ * token's code length; the decoder rebuilds the codes from those and
+ * decodes most tokens with one lookup in a table indexed by the next
+ * TABLE_BITS bits, falling back to a per-length search for longer codes.
+ * Bits are buffered 64 at a time rather than read one by one.
+ *
+ * File format: MAGIC, number of symbols, each token (length in bytes,
+ * then its raw bytes), each symbol's code length (one byte), number of
+ * symbols encoded, then the codes, most significant bit first.
+ * @author Matt Krantz
+ *
+ */
+public class WordHuffman {
+	static final int MAGIC = 0x57485546;           // "WHUF", first four bytes of every file
+	static final int TABLE_BITS = 11;              // Bits looked up at once when decoding
+	static final int MAX_CODE_LENGTH = 56;         // Longest code the bit buffers can hold
+	static final int NEWLINE = 0;                  // Symbol for the end of a line
+	// Maps each byte to one char and back, so a token's bytes can be a String key
+	static final Charset TOKEN_CHARSET = StandardCharsets.ISO_8859_1;
+
+	private Map<String, Integer> frequencyTable;   // Token frequencies, in order first seen
+	private int newlineFrequency;                  // Number of line ends
+	private String pathName;                       // Name of the input file
+
+	private String[] tokens;                       // Token for each symbol; null for NEWLINE
+	private int[] codeLengths;                     // Code length of each symbol, 0 if unused
+	private long[] codes;                          // Canonical code of each symbol
+	private long symbolCount;                      // Symbols in the file, line ends included
+
+	private String compressedPathName;             // Name of the compressed file
+	private String decompressedPathName;           // Name of the decompressed file
+
+	public WordHuffman(String pathName) {
+		// Initialize the frequency table
+		frequencyTable = new LinkedHashMap<String, Integer>();
+		this.pathName = pathName;    // Input file
+	}
+
+	/**
+	 * Receives the symbols of a file, in order
+	 */
+	private static abstract class SymbolVisitor {
+		public abstract void token(String token) throws IOException;
+		public abstract void newline() throws IOException;
+	}
+
+	/**
+	 * Split the input file into tokens and line ends
+	 * Tokens are split on single space bytes, so empty tokens are kept and
+	 * the file is rebuilt exactly. The last line only ends in a NEWLINE
+	 * if the file ends in '\n'. Each token's bytes are passed on as a
+	 * TOKEN_CHARSET String, whatever the file's encoding.
+	 */
+	private void scan(SymbolVisitor visitor) throws IOException {
+		InputStream input = new FileInputStream(pathName);
+		try {
+			ByteArrayOutputStream token = new ByteArrayOutputStream();
+			boolean lineStarted = false;    // Anything read since the last line end?
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				int start = 0;    // Start of the token in this buffer
+				for (int i = 0; i < read; i++) {
+					byte b = buffer[i];
+					if (b == ' ' || b == '\n') {
+						token.write(buffer, start, i - start);
+						visitor.token(token.toString(TOKEN_CHARSET.name())); token.reset();
+						start = i + 1;
+						if (b == '\n') {
+							visitor.newline();
+							lineStarted = false;
+						}
+						else {
+							lineStarted = true;
+						}
+					}
+					else {
+						lineStarted = true;
+					}
+				}
+				// Rest of the buffer continues into the next read
+				token.write(buffer, start, read - start);
+			}
+			// Last line, if the file doesn't end with a line end
+			if (lineStarted) {
+				visitor.token(token.toString(TOKEN_CHARSET.name()));
+			}
+		}
+		finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Read the file one token at a time, and update its value in the
+	 * frequency table
+	 */
+	public void setFrequencyTable() throws IOException {
+		scan(new SymbolVisitor() {
+			public void token(String token) {
+				Integer frequency = frequencyTable.get(token);
+				frequencyTable.put(token, frequency == null ? 1 : frequency + 1);
+			}
+
+			public void newline() {
+				newlineFrequency++;
+			}
+		});
+	}
+
+	/**
+	 * Number the symbols, find each one's code length from the Huffman
+	 * tree, and assign canonical codes
+	 */
+	public void createCode() throws IOException {
+		// Symbol 0 is NEWLINE, then tokens in the order they were first seen
+		tokens = new String[frequencyTable.size() + 1];
+		long[] frequencies = new long[tokens.length];
+		frequencies[NEWLINE] = newlineFrequency;
+		int symbol = 1;
+		for (String token: frequencyTable.keySet()) {
+			tokens[symbol] = token;
+			frequencies[symbol] = frequencyTable.get(token);
+			symbol++;
+		}
+		symbolCount = 0;
+		for (long frequency: frequencies) {
+			symbolCount += frequency;
+		}
+		codeLengths = codeLengths(frequencies);
+		codes = canonicalCodes(codeLengths);
+	}
+
+	/**
+	 * Code length of each symbol: its depth in the Huffman tree
+	 * The tree is built the usual way, by repeatedly joining the two
+	 * least frequent trees, but only parent links are kept.
+	 * @param frequencies frequency of each symbol
+	 * @return code length of each symbol, 0 for symbols that never occur
+	 */
+	static int[] codeLengths(final long[] frequencies) throws IOException {
+		int numSymbols = frequencies.length;
+		// Leaves are nodes 0 to numSymbols - 1, joined trees come after
+		final long[] weights = Arrays.copyOf(frequencies, 2 * numSymbols);
+		int[] parents = new int[2 * numSymbols];
+		PriorityQueue<Integer> treeQueue = new PriorityQueue<Integer>(numSymbols + 1,
+		new Comparator<Integer>() {
+			public int compare(Integer tree1, Integer tree2) {
+				// Least frequent first, ties by node number so codes don't vary
+				if (weights[tree1] != weights[tree2]) {
+					return weights[tree1] < weights[tree2] ? -1 : 1;
+				}
+				return tree1.compareTo(tree2);
+			}
+		});
+		for (int s = 0; s < numSymbols; s++) {
+			if (frequencies[s] > 0) {
+				treeQueue.add(s);
+			}
+		}
+
+		int[] lengths = new int[numSymbols];
+		// Handle boundary cases: nothing to code, or only one symbol
+		if (treeQueue.size() <= 1) {
+			if (treeQueue.size() == 1) {
+				lengths[treeQueue.element()] = 1;
+			}
+			return lengths;
+		}
+
+		// Join the two least frequent trees until one is left
+		int next = numSymbols;
+		while (treeQueue.size() > 1) {
+			int tree1 = treeQueue.remove(), tree2 = treeQueue.remove();
+			weights[next] = weights[tree1] + weights[tree2];
+			parents[tree1] = next; parents[tree2] = next;
+			treeQueue.add(next);
+			next++;
+		}
+		int root = treeQueue.element();
+		// Depth of each node, working down from the root
+		int[] depths = new int[next];
+		for (int node = root - 1; node >= 0; node--) {
+			depths[node] = depths[parents[node]] + 1;
+		}
+		for (int s = 0; s < numSymbols; s++) {
+			if (frequencies[s] > 0) {
+				lengths[s] = depths[s];
+				if (lengths[s] > MAX_CODE_LENGTH) {
+					throw new IOException("Huffman code of " + lengths[s] + " bits is too long");
+				}
+			}
+		}
+		return lengths;
+	}
+
+	/**
+	 * Symbols that have codes, shortest code first, ties by symbol
+	 */
+	static int[] canonicalOrder(int[] lengths) {
+		int numCoded = 0;
+		for (int length: lengths) {
+			numCoded += length > 0 ? 1 : 0;
+		}
+		int[] order = new int[numCoded];
+		int k = 0;
+		for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+			for (int s = 0; s < lengths.length; s++) {
+				if (lengths[s] == length) {
+					order[k++] = s;
+				}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Canonical codes: in canonical order, each code is one more than the
+	 * previous one, shifted left to its own length
+	 * @param lengths code length of each symbol
+	 * @return code of each symbol, in its low bits
+	 */
+	static long[] canonicalCodes(int[] lengths) {
+		long[] codes = new long[lengths.length];
+		long code = 0;
+		int previousLength = 0;
+		for (int s: canonicalOrder(lengths)) {
+			code <<= lengths[s] - previousLength;
+			codes[s] = code;
+			code++;
+			previousLength = lengths[s];
+		}
+		return codes;
+	}
+
+	/**
+	 * Compress the given file using the codes
+	 */
+	public void compress() throws IOException {
+		// Name of the compressed file
+		compressedPathName = pathName.substring(0, pathName.length() - 4);
+		compressedPathName += "_compressed.whf";
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+		new FileOutputStream(compressedPathName)));
+		try {
+			// Header: vocabulary and code lengths, stored once
+			output.writeInt(MAGIC);
+			output.writeInt(tokens.length);
+			for (int s = 1; s < tokens.length; s++) {
+				byte[] bytes = tokens[s].getBytes(TOKEN_CHARSET);
+				output.writeInt(bytes.length);
+				output.write(bytes);
+			}
+			for (int length: codeLengths) {
+				output.writeByte(length);
+			}
+			output.writeLong(symbolCount);
+
+			// Symbol IDs for the second pass
+			final HashMap<String, Integer> symbols = new HashMap<String, Integer>();
+			for (int s = 1; s < tokens.length; s++) {
+				symbols.put(tokens[s], s);
+			}
+			// Bits waiting to be written, in the low bits of a long
+			final long[] bitBuffer = new long[1];
+			final int[] bitCount = new int[1];
+			scan(new SymbolVisitor() {
+				public void token(String token) throws IOException {
+					write(symbols.get(token));
+				}
+
+				public void newline() throws IOException {
+					write(NEWLINE);
+				}
+
+				private void write(int symbol) throws IOException {
+					bitBuffer[0] = (bitBuffer[0] << codeLengths[symbol]) | codes[symbol];
+					bitCount[0] += codeLengths[symbol];
+					// Write out every complete byte
+					while (bitCount[0] >= 8) {
+						bitCount[0] -= 8;
+						output.write((int) (bitBuffer[0] >>> bitCount[0]));
+					}
+				}
+			});
+			// Last partial byte, padded with zeros
+			if (bitCount[0] > 0) {
+				output.write((int) (bitBuffer[0] << (8 - bitCount[0])));
+			}
+		}
+		finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * Decompress the file written by compress()
+	 */
+	public void decompress() throws IOException {
+		// Name of the decompressed file
+		decompressedPathName = pathName.substring(0, pathName.length() - 4);
+		decompressedPathName += "_decompressed.txt";
+		InputStream input = new FileInputStream(compressedPathName);
+		OutputStream output = new FileOutputStream(decompressedPathName);
+		try {
+			decode(input, output);
+		}
+		finally {
+			// Close the input and output files
+			input.close(); output.close();
+		}
+	}
+
+	/**
+	 * @return whether the stream starts like a WordHuffman file; the
+	 * stream must support mark()
+	 */
+	public static boolean isCompressed(InputStream input) throws IOException {
+		input.mark(4);
+		try {
+			return new DataInputStream(input).readInt() == MAGIC;
+		}
+		catch (EOFException e) {
+			return false;
+		}
+		finally {
+			input.reset();
+		}
+	}
+
+	/**
+	 * Decode a WordHuffman file
+	 * @param input compressed data, header included; read to the end
+	 * @param output where the original bytes are written; not closed
+	 */
+	public static void decode(InputStream input, OutputStream output) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+		// Read the header
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a WordHuffman file");
+		}
+		// Tokens are kept as the bytes they are written out as
+		byte[][] tokens = new byte[in.readInt()][];
+		for (int s = 1; s < tokens.length; s++) {
+			tokens[s] = new byte[in.readInt()];
+			in.readFully(tokens[s]);
+		}
+		int[] lengths = new int[tokens.length];
+		int maxLength = 0;
+		for (int s = 0; s < tokens.length; s++) {
+			lengths[s] = in.readUnsignedByte();
+			if (lengths[s] > MAX_CODE_LENGTH) {
+				throw new IOException("Corrupt WordHuffman header");
+			}
+			maxLength = Math.max(maxLength, lengths[s]);
+		}
+		long symbolCount = in.readLong();
+
+		// Rebuild the canonical codes: the codes of each length are
+		// consecutive, starting at firstCode, in canonical order from firstIndex
+		int[] order = canonicalOrder(lengths);
+		long[] firstCode = new long[maxLength + 1];
+		int[] firstIndex = new int[maxLength + 1];
+		int[] lengthCount = new int[maxLength + 1];
+		long code = 0;
+		int index = 0;
+		for (int length = 1; length <= maxLength; length++) {
+			firstCode[length] = code; firstIndex[length] = index;
+			while (index < order.length && lengths[order[index]] == length) {
+				lengthCount[length]++; index++; code++;
+			}
+			code <<= 1;
+		}
+
+		// Lookup table: for every TABLE_BITS-bit prefix that starts with a
+		// short enough code, the symbol's place in canonical order and its length
+		int tableBits = Math.min(TABLE_BITS, maxLength);
+		int[] table = new int[1 << tableBits];
+		for (int k = 0; k < order.length && lengths[order[k]] <= tableBits; k++) {
+			int length = lengths[order[k]];
+			int first = (int) ((firstCode[length] + k - firstIndex[length]) <<
+			(tableBits - length));
+			Arrays.fill(table, first, first + (1 << (tableBits - length)),
+			(k << 6) | length);
+		}
+
+		// Decode, keeping up to 64 bits buffered
+		byte[] bytes = new byte[65536];
+		int byteCount = 0, bytePosition = 0;
+		long bitBuffer = 0;
+		int bitCount = 0;
+		byte[] text = new byte[65536];    // Decoded bytes waiting to be written
+		int textLength = 0;
+		boolean lineStarted = false;      // Any token written on this line yet?
+		for (long n = 0; n < symbolCount; n++) {
+			// Top the buffer up to more than the longest code
+			while (bitCount <= MAX_CODE_LENGTH) {
+				if (bytePosition == byteCount) {
+					byteCount = in.read(bytes);
+					bytePosition = 0;
+					if (byteCount <= 0) {
+						byteCount = 0;
+						break;
+					}
+				}
+				bitBuffer = (bitBuffer << 8) | (bytes[bytePosition++] & 0xFF);
+				bitCount += 8;
+			}
+
+			// Next tableBits bits, padded with zeros past the end of the data
+			long peek = bitCount >= tableBits ? bitBuffer >>> (bitCount - tableBits) :
+			bitBuffer << (tableBits - bitCount);
+			int entry = table[(int) (peek & ((1 << tableBits) - 1))];
+			int k, length;
+			if (entry != 0) {
+				k = entry >>> 6; length = entry & 63;
+			}
+			else {
+				// Longer code: try each length until the code falls in its range
+				k = -1; length = tableBits;
+				while (k < 0 && ++length <= maxLength) {
+					long bits = bitCount >= length ? bitBuffer >>> (bitCount - length) :
+					bitBuffer << (length - bitCount);
+					long offset = (bits & ((1L << length) - 1)) - firstCode[length];
+					if (offset >= 0 && offset < lengthCount[length]) {
+						k = firstIndex[length] + (int) offset;
+					}
+				}
+			}
+			if (k < 0 || length > bitCount) {
+				throw new IOException("Corrupt or truncated WordHuffman data");
+			}
+			bitCount -= length;
+
+			// Write the symbol, with a space between tokens on the same line
+			int symbol = order[k];
+			byte[] token = symbol == NEWLINE ? null : tokens[symbol];
+			if (token != null && textLength + token.length + 1 > text.length) {
+				output.write(text, 0, textLength);
+				textLength = 0;
+			}
+			if (symbol == NEWLINE) {
+				if (textLength == text.length) {
+					output.write(text, 0, textLength);
+					textLength = 0;
+				}
+				text[textLength++] = '\n';
+				lineStarted = false;
+			}
+			else {
+				if (lineStarted) {
+					text[textLength++] = ' ';
+				}
+				if (token.length > text.length - textLength) {
+					// Longer than the whole buffer
+					output.write(text, 0, textLength);
+					textLength = 0;
+					output.write(token);
+				}
+				else {
+					System.arraycopy(token, 0, text, textLength, token.length);
+					textLength += token.length;
+				}
+				lineStarted = true;
+			}
+		}
+		output.write(text, 0, textLength);
+	}
+
+	/**
+	 * Main method for testing and compression/decompression
+	 * Takes the file to compress as an argument
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Usage: java WordHuffman file.txt");
+			return;
+		}
+		String file = args[0];
+		try {
+			WordHuffman huffmanTest = new WordHuffman(file);
+			huffmanTest.setFrequencyTable();
+			huffmanTest.createCode();
+			huffmanTest.compress();
+			long startTime = System.nanoTime();
+			huffmanTest.decompress();
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+
+			long original = new File(file).length();
+			long compressed = new File(huffmanTest.compressedPathName).length();
+			System.out.println(huffmanTest.tokens.length + " symbols, " +
+			huffmanTest.symbolCount + " coded; " + original + " bytes compressed to " +
+			compressed + " (" + (100.0 * compressed / Math.max(original, 1)) + "%); decoded in " +
+			seconds + " s (" + (int) (huffmanTest.symbolCount / seconds) + " tokens/sec)");
+		}
+		catch (IOException e) {
+			System.err.println("Either no such file or directory exists, " +
+			"or the file is corrupt!");
+		}
+	}
+}
@@ -0,0 +1,141 @@
+import java.util.*;
+
+/**
+ * Emission probabilities stored in flat arrays (compressed sparse rows)
+ * instead of one HashMap per word
+ * Row w holds the tags seen with word w: tagIds and logProbs from
+ * offsets[w] up to offsets[w + 1]. Tag IDs are shorts and log
+ * probabilities are floats, so each seen (word, tag) pair costs 6 bytes
+ * instead of a map entry and a boxed Double.
+ * @author Matt Krantz
+ *
+ */
+public class CompactEmissions {
+	// Approximate sizes in bytes on a 64-bit JVM with compressed pointers
+	private static final int ARRAY_HEADER = 16;     // Array header, including length
+	private static final int REFERENCE = 4;         // Compressed pointer
+	private static final int MAP = 48;              // HashMap object
+	private static final int NODE = 32;             // HashMap.Node
+	private static final int BOXED_DOUBLE = 24;     // java.lang.Double
+	private static final int STRING = 24;           // String object, without its bytes
+
+	private int[] offsets;      // Where each word's row starts; one extra entry at the end
+	private short[] tagIds;     // Tag ID of each stored emission
+	private float[] logProbs;   // Log probability of each stored emission
+
+	/**
+	 * Pack emission maps into rows, one per word in the order given
+	 * @param words words of the vocabulary, in word ID order
+	 * @param emissions word -> (tag -> log probability)
+	 * @param tagIndex tag -> tag ID
+	 */
+	public CompactEmissions(List<String> words, Map<String, HashMap<String, Double>> emissions,
+	Map<String, Integer> tagIndex) {
+		if (tagIndex.size() > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many tags for compact storage: " +
+			tagIndex.size());
+		}
+		// Row lengths first, so the flat arrays can be sized exactly
+		offsets = new int[words.size() + 1];
+		for (int w = 0; w < words.size(); w++) {
+			offsets[w + 1] = offsets[w] + emissions.get(words.get(w)).size();
+		}
+		tagIds = new short[offsets[words.size()]];
+		logProbs = new float[offsets[words.size()]];
+
+		// Fill each row, tags in ID order
+		for (int w = 0; w < words.size(); w++) {
+			HashMap<String, Double> row = emissions.get(words.get(w));
+			TreeMap<Integer, Double> sortedRow = new TreeMap<Integer, Double>();
+			for (String tag: row.keySet()) {
+				sortedRow.put(tagIndex.get(tag), row.get(tag));
+			}
+			int k = offsets[w];
+			for (int tag: sortedRow.keySet()) {
+				tagIds[k] = (short) tag;
+				logProbs[k] = sortedRow.get(tag).floatValue();
+				k++;
+			}
+		}
+	}
+
+	/**
+	 * Write the scores of every tag for a word into row
+	 * @param wordId word to look up
+	 * @param unknownScores scores for tags never seen with the word
+	 * @param row scores by tag ID, overwritten
+	 */
+	public void fillRow(int wordId, double[] unknownScores, double[] row) {
+		System.arraycopy(unknownScores, 0, row, 0, row.length);
+		for (int k = offsets[wordId]; k < offsets[wordId + 1]; k++) {
+			row[tagIds[k]] = logProbs[k];
+		}
+	}
+
+	/**
+	 * @return number of (word, tag) pairs stored
+	 */
+	public int size() {
+		return tagIds.length;
+	}
+
+	/**
+	 * @return approximate bytes used by the arrays
+	 */
+	public long bytes() {
+		return array(offsets.length * 4L) + array(tagIds.length * 2L) +
+		array(logProbs.length * 4L);
+	}
+
+	/**
+	 * Approximate bytes used by emissions stored as nested HashMaps
+	 * Counts the maps, their entries, the boxed Doubles and the word
+	 * Strings; tag Strings are shared with the rest of the model
+	 * @param emissions word -> (tag -> log probability)
+	 */
+	public static long mapBytes(Map<String, HashMap<String, Double>> emissions) {
+		long bytes = MAP + table(emissions.size());
+		for (String word: emissions.keySet()) {
+			int entries = emissions.get(word).size();
+			// Outer entry, its word, and the word's own map
+			bytes += NODE + align(STRING) + array(word.length());
+			bytes += MAP + table(entries) + entries * (long) (NODE + BOXED_DOUBLE);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Approximate bytes used by one dense row of scores per word
+	 * @param words number of words
+	 * @param tags number of tags
+	 */
+	public static long denseBytes(int words, int tags) {
+		return array(words * (long) REFERENCE) + words * array(tags * 8L);
+	}
+
+	/**
+	 * @return size of a HashMap table holding the given number of entries
+	 */
+	private static long table(int entries) {
+		// Tables are powers of two, at most three quarters full
+		int capacity = 16;
+		while (entries > capacity * 3 / 4) {
+			capacity *= 2;
+		}
+		return array(capacity * (long) REFERENCE);
+	}
+
+	/**
+	 * @return size of an array with the given bytes of elements
+	 */
+	private static long array(long elementBytes) {
+		return align(ARRAY_HEADER + elementBytes);
+	}
+
+	/**
+	 * @return bytes rounded up to the JVM's 8-byte object alignment
+	 */
+	private static long align(long bytes) {
+		return (bytes + 7) / 8 * 8;
+	}
+}
@@ -0,0 +1,304 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Evaluates a trained POSTagger on a set of tagged sentences, reporting
+ * accuracy and speed from the same run
+ * Accuracy: overall, on words the model knows against words it has
+ * never seen, per-tag precision and recall, and a confusion matrix.
+ * Speed: sentences and tokens per second, and p50/p95/p99 latency per
+ * sentence, bucketed by sentence length. Latency covers tag() on an
+ * already split sentence; with a TagCache attached it includes hits.
+ * @author Matt Krantz
+ *
+ */
+public class Evaluation {
+	static final int[] BUCKET_LIMITS = {5, 10, 20, 40};    // Longest sentence in each bucket
+	static final String MISSING = "-";                      // Stands in for a tag never produced
+
+	private String[] tagNames;            // Every tag seen, gold or predicted, sorted
+	private long[][] confusion;           // [gold tag][predicted tag] counts
+	private long knownCorrect, knownTotal;        // Tokens the model has seen before
+	private long unknownCorrect, unknownTotal;    // Tokens the model has never seen
+	private int sentences;                // Sentences tagged
+	private long totalNanos;              // Time spent tagging
+	private long[][] bucketLatencies;     // Sorted latencies (ns) in each length bucket
+	private long[] allLatencies;          // Sorted latencies (ns) of every sentence
+
+	/**
+	 * Tag every sentence with the model and compare against the gold tags
+	 * @param model trained tagger
+	 * @param words sentences to tag, already split into words
+	 * @param tags gold tags for each sentence
+	 */
+	public Evaluation(POSTagger model, List<String[]> words, List<String[]> tags) {
+		sentences = words.size();
+		ArrayList<ArrayList<String>> predictions = new ArrayList<ArrayList<String>>(sentences);
+		allLatencies = new long[sentences];
+
+		// Tag everything first, timing each sentence
+		for (int i = 0; i < sentences; i++) {
+			long startTime = System.nanoTime();
+			ArrayList<String> predicted = model.tag(words.get(i));
+			allLatencies[i] = System.nanoTime() - startTime;
+			totalNanos += allLatencies[i];
+			predictions.add(predicted);
+		}
+
+		// Latencies by sentence length
+		ArrayList<ArrayList<Long>> buckets = new ArrayList<ArrayList<Long>>();
+		for (int b = 0; b <= BUCKET_LIMITS.length; b++) {
+			buckets.add(new ArrayList<Long>());
+		}
+		for (int i = 0; i < sentences; i++) {
+			buckets.get(bucket(words.get(i).length)).add(allLatencies[i]);
+		}
+		bucketLatencies = new long[buckets.size()][];
+		for (int b = 0; b < buckets.size(); b++) {
+			bucketLatencies[b] = new long[buckets.get(b).size()];
+			for (int k = 0; k < bucketLatencies[b].length; k++) {
+				bucketLatencies[b][k] = buckets.get(b).get(k);
+			}
+			Arrays.sort(bucketLatencies[b]);
+		}
+		Arrays.sort(allLatencies);
+
+		// Every tag that shows up on either side
+		TreeSet<String> allTags = new TreeSet<String>(Arrays.asList(model.tagNames));
+		for (int i = 0; i < sentences; i++) {
+			allTags.addAll(Arrays.asList(tags.get(i)));
+			allTags.addAll(predictions.get(i));
+		}
+		allTags.add(MISSING);
+		tagNames = allTags.toArray(new String[allTags.size()]);
+		HashMap<String, Integer> tagIds = new HashMap<String, Integer>();
+		for (int t = 0; t < tagNames.length; t++) {
+			tagIds.put(tagNames[t], t);
+		}
+
+		// Compare each predicted tag with the gold one
+		confusion = new long[tagNames.length][tagNames.length];
+		for (int i = 0; i < sentences; i++) {
+			String[] gold = tags.get(i);
+			ArrayList<String> predicted = predictions.get(i);
+			int[] wordIds = Tokenizer.wordIds(words.get(i), model.vocabulary);
+			for (int j = 0; j < gold.length; j++) {
+				String guess = j < predicted.size() ? predicted.get(j) : MISSING;
+				boolean correct = guess.equals(gold[j]);
+				confusion[tagIds.get(gold[j])][tagIds.get(guess)]++;
+				if (wordIds[j] == Vocabulary.NOT_FOUND) {
+					unknownTotal++;
+					unknownCorrect += correct ? 1 : 0;
+				}
+				else {
+					knownTotal++;
+					knownCorrect += correct ? 1 : 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return which length bucket a sentence of this many words falls in
+	 */
+	private static int bucket(int length) {
+		int b = 0;
+		while (b < BUCKET_LIMITS.length && length > BUCKET_LIMITS[b]) {
+			b++;
+		}
+		return b;
+	}
+
+	/**
+	 * @return name of a length bucket, like "6-10"
+	 */
+	private static String bucketName(int b) {
+		int low = b == 0 ? 1 : BUCKET_LIMITS[b - 1] + 1;
+		return b == BUCKET_LIMITS.length ? low + "+" : low + "-" + BUCKET_LIMITS[b];
+	}
+
+	/**
+	 * @return latency (ms) below which the given fraction of sorted samples fall
+	 */
+	private static double percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0) {
+			return 0.0;
+		}
+		// Nearest rank
+		int rank = (int) Math.ceil(fraction * sorted.length);
+		return sorted[Math.max(rank - 1, 0)] / 1e6;
+	}
+
+	/**
+	 * @return percentage, or 0 if there's nothing to divide by
+	 */
+	private static double percent(long part, long whole) {
+		return whole == 0 ? 0.0 : 100.0 * part / whole;
+	}
+
+	/**
+	 * @return percent of all tokens tagged correctly
+	 */
+	public double accuracy() {
+		return percent(knownCorrect + unknownCorrect, knownTotal + unknownTotal);
+	}
+
+	/**
+	 * @return percent of known tokens tagged correctly
+	 */
+	public double knownAccuracy() {
+		return percent(knownCorrect, knownTotal);
+	}
+
+	/**
+	 * @return percent of unknown tokens tagged correctly
+	 */
+	public double unknownAccuracy() {
+		return percent(unknownCorrect, unknownTotal);
+	}
+
+	/**
+	 * @return sentences tagged per second
+	 */
+	public double sentencesPerSecond() {
+		return totalNanos == 0 ? 0.0 : sentences / (totalNanos / 1e9);
+	}
+
+	/**
+	 * @return tokens tagged per second
+	 */
+	public double tokensPerSecond() {
+		return totalNanos == 0 ? 0.0 : (knownTotal + unknownTotal) / (totalNanos / 1e9);
+	}
+
+	/**
+	 * @return how often gold tag was tagged as predicted
+	 */
+	public long confusion(String gold, String predicted) {
+		int g = Arrays.binarySearch(tagNames, gold), p = Arrays.binarySearch(tagNames, predicted);
+		return g < 0 || p < 0 ? 0 : confusion[g][p];
+	}
+
+	// Convert the whole report to string
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		long tokens = knownTotal + unknownTotal;
+		report.append(String.format("Accuracy: %.2f%% of %d tokens in %d sentences%n",
+		accuracy(), tokens, sentences));
+		report.append(String.format("  known words:   %.2f%% of %d%n", knownAccuracy(),
+		knownTotal));
+		report.append(String.format("  unknown words: %.2f%% of %d%n", unknownAccuracy(),
+		unknownTotal));
+
+		// Per-tag precision and recall
+		report.append(String.format("%nTag\tPrecision\tRecall\tF1\tGold count%n"));
+		for (int t = 0; t < tagNames.length; t++) {
+			long correct = confusion[t][t], gold = 0, predicted = 0;
+			for (int u = 0; u < tagNames.length; u++) {
+				gold += confusion[t][u];
+				predicted += confusion[u][t];
+			}
+			if (gold == 0 && predicted == 0) {
+				continue;
+			}
+			double precision = percent(correct, predicted), recall = percent(correct, gold);
+			double f1 = precision + recall == 0 ? 0.0 : 2 * precision * recall /
+			(precision + recall);
+			report.append(String.format("%s\t%.2f%%\t\t%.2f%%\t%.2f\t%d%n", tagNames[t],
+			precision, recall, f1, gold));
+		}
+
+		// Confusion matrix, gold tags down the side, predicted across the top
+		report.append(String.format("%nConfusion matrix (rows gold, columns predicted)%n%6s",
+		""));
+		for (String tag: tagNames) {
+			report.append(String.format("%7s", tag));
+		}
+		report.append(String.format("%n"));
+		for (int g = 0; g < tagNames.length; g++) {
+			report.append(String.format("%6s", tagNames[g]));
+			for (int p = 0; p < tagNames.length; p++) {
+				report.append(String.format("%7d", confusion[g][p]));
+			}
+			report.append(String.format("%n"));
+		}
+
+		// Speed
+		report.append(String.format("%nThroughput: %.0f sentences/sec, %.0f tokens/sec%n",
+		sentencesPerSecond(), tokensPerSecond()));
+		report.append(String.format("Latency (ms)\tSentences\tp50\tp95\tp99%n"));
+		for (int b = 0; b < bucketLatencies.length; b++) {
+			report.append(String.format("%s words\t%d\t\t%.3f\t%.3f\t%.3f%n", bucketName(b),
+			bucketLatencies[b].length, percentile(bucketLatencies[b], 0.50),
+			percentile(bucketLatencies[b], 0.95), percentile(bucketLatencies[b], 0.99)));
+		}
+		report.append(String.format("all\t\t%d\t\t%.3f\t%.3f\t%.3f%n", allLatencies.length,
+		percentile(allLatencies, 0.50), percentile(allLatencies, 0.95),
+		percentile(allLatencies, 0.99)));
+		return report.toString();
+	}
+
+	/**
+	 * Evaluate after one untimed pass, so the JIT has compiled the tagger
+	 * @param model trained tagger
+	 * @param words sentences to tag, already split into words
+	 * @param tags gold tags for each sentence
+	 */
+	public static Evaluation warmEvaluate(POSTagger model, List<String[]> words,
+	List<String[]> tags) {
+		new Evaluation(model, words, tags);
+		return new Evaluation(model, words, tags);
+	}
+
+	/**
+	 * Hold out every partitions-th line of the corpus, starting with the first
+	 * @param words sentences of the corpus
+	 * @param tags tags of the corpus
+	 * @param partitions one line in this many is held out
+	 * @param trainWords, trainTags lines to train on, added to
+	 * @param testWords, testTags lines held out, added to
+	 */
+	public static void split(List<String[]> words, List<String[]> tags, int partitions,
+	List<String[]> trainWords, List<String[]> trainTags, List<String[]> testWords,
+	List<String[]> testTags) {
+		for (int i = 0; i < words.size(); i++) {
+			if (i % partitions == 0) {
+				testWords.add(words.get(i)); testTags.add(tags.get(i));
+			}
+			else {
+				trainWords.add(words.get(i)); trainTags.add(tags.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Main method: train on every line but one in each group of partitions
+	 * lines, then report on the lines held out
+	 * Arguments (all optional): partitions (default 5), model order (2 or 3)
+	 */
+	public static void main(String[] args) {
+		int partitions = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int order = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+		POSTagger tagger = new POSTagger();
+		try {
+			tagger.load();
+		}
+		catch (IOException e) {
+			System.err.println("Either no such file or directory exists, or "
+			+ "the file is corrupt!");
+			return;
+		}
+		ArrayList<String[]> trainWords = new ArrayList<String[]>();
+		ArrayList<String[]> trainTags = new ArrayList<String[]>();
+		ArrayList<String[]> testWords = new ArrayList<String[]>();
+		ArrayList<String[]> testTags = new ArrayList<String[]>();
+		split(tagger.corpusWords, tagger.corpusTags, partitions, trainWords, trainTags,
+		testWords, testTags);
+		tagger.setOrder(order);
+		tagger.setCompact(true);
+		tagger.train(trainWords, trainTags, trainWords.size());
+
+		System.out.print(warmEvaluate(tagger, testWords, testTags));
+	}
+}
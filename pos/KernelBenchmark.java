@@ -0,0 +1,85 @@
+import java.util.*;
+
+/**
+ * Compares the per-word cost of the Viterbi kernels on random models
+ * with the Brown tag set's size and with larger tag sets
+ * Run with --add-modules jdk.incubator.vector to include the vector
+ * kernel; without it both columns show the scalar kernel.
+ * @author Matt Krantz
+ *
+ */
+public class KernelBenchmark {
+	static final int[] TAG_SET_SIZES = {20, 31, 64, 128, 256};    // Tag set sizes to try
+	static final int WORDS = 2000;                                // Words per timed run
+	static final int RUNS = 15;                                   // Timed runs per kernel
+	
+	/**
+	 * Random transitions, with about a quarter of them never seen
+	 */
+	private static double[][] randomTransitions(int numTags, Random random) {
+		double[][] transitions = new double[numTags][numTags];
+		for (int prev = 0; prev < numTags; prev++) {
+			for (int next = 0; next < numTags; next++) {
+				transitions[prev][next] = random.nextInt(4) == 0 ? Double.NEGATIVE_INFINITY : 
+				Math.log(random.nextDouble());
+			}
+		}
+		return transitions;
+	}
+	
+	/**
+	 * Run the kernel over a sentence of WORDS words
+	 * @return nanoseconds taken per word
+	 */
+	private static double time(ViterbiKernel kernel, double[][] transitions, double[][] emissions,
+	int[][] backTrace) {
+		int numTags = transitions.length;
+		double[] prevScores = emissions[0].clone();
+		double[] nextScores = new double[numTags];
+		long startTime = System.nanoTime();
+		for (int i = 1; i < WORDS; i++) {
+			kernel.maxPlus(prevScores, transitions, nextScores, backTrace[i]);
+			double[] emissionsValue = emissions[i % emissions.length];
+			for (int tag = 0; tag < numTags; tag++) {
+				nextScores[tag] += emissionsValue[tag];
+			}
+			double[] swap = prevScores; prevScores = nextScores; nextScores = swap;
+		}
+		return (double) (System.nanoTime() - startTime) / (WORDS - 1);
+	}
+	
+	/**
+	 * Main method to run the benchmark
+	 */
+	public static void main(String[] args) {
+		ViterbiKernel scalar = ViterbiKernel.scalar();
+		ViterbiKernel fastest = ViterbiKernel.fastest();
+		System.out.println("Tags\t" + scalar + " ns/word\t" + fastest + " ns/word\tspeedup");
+		Random random = new Random(10);
+		for (int numTags: TAG_SET_SIZES) {
+			double[][] transitions = randomTransitions(numTags, random);
+			double[][] emissions = new double[64][numTags];
+			for (double[] row: emissions) {
+				for (int tag = 0; tag < numTags; tag++) {
+					row[tag] = Math.log(random.nextDouble());
+				}
+			}
+			int[][] scalarTrace = new int[WORDS][numTags];
+			int[][] fastestTrace = new int[WORDS][numTags];
+			
+			// Best of several runs, after the first few warm up the JIT
+			double scalarTime = Double.MAX_VALUE, fastestTime = Double.MAX_VALUE;
+			for (int run = 0; run < RUNS; run++) {
+				scalarTime = Math.min(scalarTime, time(scalar, transitions, emissions, scalarTrace));
+				fastestTime = Math.min(fastestTime, time(fastest, transitions, emissions, 
+				fastestTrace));
+			}
+			// Both kernels must agree on every back pointer
+			if (!Arrays.deepEquals(scalarTrace, fastestTrace)) {
+				System.out.println("Kernels disagree for " + numTags + " tags!");
+			}
+			System.out.printf("%d\t%.1f\t\t\t%.1f\t\t\t%.2fx%n", numTags, scalarTime, 
+			fastestTime, scalarTime / fastestTime);
+		}
+	}
+}
@@ -1,5 +1,9 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Class to label each word in a sentence with its part of speech
@@ -12,10 +16,35 @@ public class POSTagger {
 	ArrayList<String[]> corpusWords;                            // Store array of words from corpus
 	ArrayList<String[]> corpusTags;                             // Store array of tags from corpus
     
-	HashMap<String, HashMap<String, Double>> emissions;         // Emission probabilities
+	HashMap<String, HashMap<String, Double>> emissions;         // Emission probabilities (null once compact)
 	HashMap<String, HashMap<String, Double>> transitions;       // Transition probabilities
 	
+	// The same model indexed for tagging, rebuilt whenever the model changes
+	Vocabulary vocabulary;                                      // Known words and their IDs
+	String[] tagNames;                                          // Tag for each tag ID
+	double[] startScores;                                       // Score of "#" -> tag
+	double[][] transitionScores;                                // [previous tag][next tag] score
+	double[][] emissionScores;                                  // [word ID][tag] score, unless compact
+	CompactEmissions compactEmissions;                          // Emission scores, if compact
+	double[] unknownScores;                                     // Scores for an unknown word
+	long modelVersion;                                          // Changes whenever the model does
+	
+	TagCache cache;                                             // Optional cache of tagged sentences
+	
+	TrigramModel trigramModel;                                  // Smoothed trigram transitions, if order 3
+	
+	boolean compact;                                            // Store emissions compactly?
+	int order;                                                  // 2 for bigram, 3 for trigram model
+	ViterbiKernel kernel;                                       // Inner loop of bigram tagging
+	long emissionMapBytes;                                      // Estimated size of emission maps
+	
 	static final Double UNKNOWN_VALUE = -200.0;                 // Constant for unobserved word
+	static final int SENTENCES_PER_TASK = 64;                   // Test sentences tagged per task
+	static final double TRIGRAM_BEAM = 10.0;                    // Drop lattice states this far behind
+	static final int MAX_TRIGRAM_STATES = 48;                   // Most lattice states kept per word
+	static final int CHARS_PER_TASK = 1 << 20;                  // Corpus text parsed per task
+	
+	private static final AtomicLong modelVersions = new AtomicLong();    // Source of model versions
     
 	public POSTagger() {
 		// Initialize instance variables
@@ -24,46 +53,252 @@ public class POSTagger {
 		
 		emissions = new HashMap<String, HashMap<String, Double>>();
 		transitions = new HashMap<String, HashMap<String, Double>>();
+		order = 2;
+		kernel = ViterbiKernel.scalar();
+		index();
+		modelChanged();
 	}
 	
 	/**
-	 * Read and parse input from the given files
+	 * Model that shares another tagger's corpus but trains its own
+	 * emissions and transitions, so folds can be evaluated side by side
+	 */
+	private POSTagger(ArrayList<String[]> corpusWords, ArrayList<String[]> corpusTags) {
+		this();
+		this.corpusWords = corpusWords;
+		this.corpusTags = corpusTags;
+	}
+	
+	/**
+	 * Read and parse input from the default files
 	 */
 	public void load() throws IOException {
-		// BufferedReaders to read in from the word and tag files
-		BufferedReader wordsIn = new BufferedReader(new FileReader("inputs/brown-words."
-		+ "txt"));
-		BufferedReader tagsIn = new BufferedReader(new FileReader("inputs/brown-tags.txt"));
-		
-		// Parse the word file
+		load("inputs/brown-words.txt", "inputs/brown-tags.txt");
+	}
+	
+	/**
+	 * Read and parse input from the given files
+	 * Each file may be plain text, gzip compressed, or compressed with
+	 * WordHuffman; the format is recognized from the first bytes. Text is
+	 * read as UTF-8, cut into chunks at line ends as it comes in, and each
+	 * chunk is parsed in parallel while the rest is read; the chunks are
+	 * then put back together in order.
+	 * @param wordsPath file of sentences, one per line
+	 * @param tagsPath file of the matching tags, one line per sentence
+	 */
+	public void load(String wordsPath, String tagsPath) throws IOException {
+		// Start parsing both files while they're read
+		ArrayList<LineTask> wordTasks, tagTasks;
+		Reader input = openCorpus(wordsPath);
 		try {
-			String wordLine;    // Line we're reading in
-			while ((wordLine = wordsIn.readLine()) != null) {
-				// Convert all characters to lower case
-				String lowerCaseLine = wordLine.toLowerCase();
-				// Split the line based on spaces
-				String[] splitWordLine = lowerCaseLine.split(" ");
-				// Add split line to proper index in ArrayList
-				corpusWords.add(splitWordLine);
-			}
+			wordTasks = forkLineTasks(input, true);
 		}
 		finally {
-			// Close the input file
-			wordsIn.close();
+			input.close();
 		}
-		// Parse the tag file
+		input = openCorpus(tagsPath);
 		try {
-			String tagLine;    // Line we're reading in
-			while ((tagLine = tagsIn.readLine()) != null) {
-				// Split the line based on spaces
-				String[] splitTagLine = tagLine.split(" ");
-				// Add split line to proper index in ArrayList
-				corpusTags.add(splitTagLine);
-			}
+			tagTasks = forkLineTasks(input, false);
 		}
 		finally {
+			input.close();
+		}
+		
+		// Put the chunks back together, in file order
+		ArrayList<String[]> words = new ArrayList<String[]>();
+		for (LineTask task: wordTasks) {
+			words.addAll(task.join());
+		}
+		ArrayList<String[]> tags = new ArrayList<String[]>();
+		for (LineTask task: tagTasks) {
+			tags.addAll(task.join());
+		}
+		// Line i of the tags file has to belong to line i of the words file
+		if (words.size() != tags.size()) {
+			throw new IOException(wordsPath + " has " + words.size() + " lines but " + 
+			tagsPath + " has " + tags.size());
+		}
+		corpusWords.addAll(words);
+		corpusTags.addAll(tags);
+	}
+	
+	/**
+	 * Open a corpus file as UTF-8 text, uncompressing it as it is read
+	 * @param pathName plain, gzip or WordHuffman file
+	 */
+	private static Reader openCorpus(String pathName) throws IOException {
+		InputStream input = new BufferedInputStream(new FileInputStream(pathName), 65536);
+		try {
+			if (WordHuffman.isCompressed(input)) {
+				return new InputStreamReader(new DecodingStream(input), StandardCharsets.UTF_8);
+			}
+			// Gzip files start with the bytes 1f 8b
+			input.mark(2);
+			boolean gzip = input.read() == 0x1f && input.read() == 0x8b;
+			input.reset();
+			if (gzip) {
+				return new InputStreamReader(new GZIPInputStream(input, 65536),
+				StandardCharsets.UTF_8);
+			}
+			return new InputStreamReader(input, StandardCharsets.UTF_8);
+		}
+		catch (IOException e) {
 			// Close the input file
-			tagsIn.close();
+			input.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Text of a WordHuffman file, decoded on its own thread while it is
+	 * read; if decoding fails, the error is thrown at the end of the text
+	 */
+	private static class DecodingStream extends FilterInputStream {
+		private volatile IOException error;    // Why decoding stopped early, if it did
+		
+		public DecodingStream(final InputStream compressed) throws IOException {
+			super(new PipedInputStream(65536));
+			final PipedOutputStream pipe = new PipedOutputStream((PipedInputStream) in);
+			Thread decoder = new Thread(new Runnable() {
+				public void run() {
+					try {
+						WordHuffman.decode(compressed, pipe);
+					}
+					catch (IOException e) {
+						error = e;
+					}
+					finally {
+						// End the text, whether or not it was all decoded
+						try {
+							pipe.close(); compressed.close();
+						}
+						catch (IOException e) {
+							// Nothing left to clean up
+						}
+					}
+				}
+			}, "WordHuffman decoder");
+			decoder.setDaemon(true);
+			decoder.start();
+		}
+		
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1 && error != null) {
+				throw new IOException("Corrupt WordHuffman file", error);
+			}
+			return b;
+		}
+		
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int read = super.read(buffer, offset, length);
+			if (read == -1 && error != null) {
+				throw new IOException("Corrupt WordHuffman file", error);
+			}
+			return read;
+		}
+	}
+	
+	/**
+	 * Read the text in chunks of about CHARS_PER_TASK, each ending at a
+	 * line end, and fork a task to parse each chunk as soon as it is read
+	 * @param input text of a corpus file; read to the end
+	 * @param lowerCase convert the lines to lower case (for words)
+	 * @return the tasks, in file order
+	 */
+	private static ArrayList<LineTask> forkLineTasks(Reader input, boolean lowerCase)
+	throws IOException {
+		ArrayList<LineTask> tasks = new ArrayList<LineTask>();
+		char[] buffer = new char[CHARS_PER_TASK];
+		int length = 0;          // Chars in the buffer
+		boolean done = false;    // Reached the end of the input?
+		while (!done) {
+			// Fill the buffer, after whatever was left from the last chunk
+			while (length < buffer.length) {
+				int read = input.read(buffer, length, buffer.length - length);
+				if (read == -1) {
+					done = true;
+					break;
+				}
+				length += read;
+			}
+			int end = done ? length : chunkEnd(buffer, length);
+			if (end == 0 && !done) {
+				// No line end yet: make room for more of this line
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+				continue;
+			}
+			if (end > 0) {
+				LineTask task = new LineTask(new String(buffer, 0, end), lowerCase);
+				task.fork();
+				tasks.add(task);
+			}
+			// The rest starts the next chunk
+			System.arraycopy(buffer, end, buffer, 0, length - end);
+			length -= end;
+		}
+		return tasks;
+	}
+	
+	/**
+	 * @return length of the buffer up to its last complete line end, or 0
+	 * if it has none; a '\r' in the last place may be half of a "\r\n", so
+	 * it doesn't count yet
+	 */
+	private static int chunkEnd(char[] buffer, int length) {
+		if (length > 0 && buffer[length - 1] == '\n') {
+			return length;
+		}
+		for (int i = length - 2; i >= 0; i--) {
+			if (buffer[i] == '\n' || buffer[i] == '\r') {
+				// Keep "\r\n" together
+				return buffer[i] == '\r' && buffer[i + 1] == '\n' ? i + 2 : i + 1;
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Splits the lines in one chunk of a corpus file into words or tags
+	 * Lines end the same way as for BufferedReader.readLine(): at "\n",
+	 * "\r" or "\r\n".
+	 */
+	private static class LineTask extends RecursiveTask<ArrayList<String[]>> {
+		private static final long serialVersionUID = 1L;
+		
+		private String text;          // Chunk of the file, ending at a line end unless it's the last
+		private boolean lowerCase;    // Convert to lower case first?
+		
+		public LineTask(String text, boolean lowerCase) {
+			this.text = text; this.lowerCase = lowerCase;
+		}
+		
+		protected ArrayList<String[]> compute() {
+			ArrayList<String[]> lines = new ArrayList<String[]>();
+			int lineStart = 0, end = text.length();
+			for (int i = 0; i < end; i++) {
+				char ch = text.charAt(i);
+				if (ch == '\n' || ch == '\r') {
+					lines.add(split(text.substring(lineStart, i)));
+					// "\r\n" is one line end
+					if (ch == '\r' && i + 1 < end && text.charAt(i + 1) == '\n') {
+						i++;
+					}
+					lineStart = i + 1;
+				}
+			}
+			// Last line, if the file doesn't end with a line end
+			if (lineStart < end) {
+				lines.add(split(text.substring(lineStart, end)));
+			}
+			return lines;
+		}
+		
+		/**
+		 * Split a line based on spaces
+		 */
+		private String[] split(String line) {
+			return (lowerCase ? line.toLowerCase() : line).split(" ");
 		}
 	}
 	
@@ -75,124 +310,372 @@ public class POSTagger {
 	 * @param n how much of the file to read in
 	 */
 	public void train(ArrayList<String[]> wordList, ArrayList<String[]> tagList, int n) {
-		// Reset transitions and emissions maps
-		emissions = new HashMap<String, HashMap<String, Double>>();
-		transitions = new HashMap<String, HashMap<String, Double>>();
+		// Fresh count tables for this training pass
+		Counts counts = new Counts(order == 3);
+		// Count every line from the start of the list
+		count(wordList, tagList, 0, 1, n, counts);
+		// Turn the counts into log probabilities
+		normalize(counts);
+	}
+	
+	/**
+	 * Count tables gathered from some lines of the corpus
+	 */
+	private static class Counts {
+		HashMap<String, HashMap<String, Double>> emissions;      // word -> (tag -> count)
+		HashMap<String, HashMap<String, Double>> transitions;    // tag -> (next tag -> count)
+		HashMap<String, HashMap<String, Double>> trigrams;       // "tag1 tag2" -> (next tag -> count)
+		
+		/**
+		 * Empty count tables
+		 * @param withTrigrams whether to count tag trigrams as well
+		 */
+		public Counts(boolean withTrigrams) {
+			emissions = new HashMap<String, HashMap<String, Double>>();
+			transitions = new HashMap<String, HashMap<String, Double>>();
+			if (withTrigrams) {
+				trigrams = new HashMap<String, HashMap<String, Double>>();
+			}
+		}
 		
-		// Loop through words and tags in ArrayLists
-		for (int i = 0; i < Math.min(n, wordList.size()); i++) {
-			for (int j = 0; j < wordList.get(i).length; j++) {
-				// Word we're looking at
-				String word = wordList.get(i)[j];
-				// Corresponding part of speech
-				String POS = tagList.get(i)[j];
+		/**
+		 * Add (sign 1) or subtract (sign -1) every count in other
+		 */
+		public void add(Counts other, double sign) {
+			addCounts(emissions, other.emissions, sign);
+			addCounts(transitions, other.transitions, sign);
+			if (trigrams != null) {
+				addCounts(trigrams, other.trigrams, sign);
+			}
+		}
+		
+		/**
+		 * @return an independent copy of these counts
+		 */
+		public Counts copy() {
+			Counts copy = new Counts(trigrams != null);
+			copy.add(this, 1.0);
+			return copy;
+		}
+	}
+	
+	/**
+	 * Count emissions and transitions for every step-th line, starting at
+	 * line first and stopping before line n
+	 * @param wordList what words to count
+	 * @param tagList what tags to count
+	 * @param first first line to count
+	 * @param step distance between counted lines
+	 * @param n how much of the file to read in
+	 * @param counts count tables, updated in place
+	 */
+	private static void count(List<String[]> wordList, List<String[]> tagList, int first, 
+	int step, int n, Counts counts) {
+		// Loop through words and tags in the lists
+		for (int i = first; i < Math.min(n, wordList.size()); i += step) {
+			String[] words = wordList.get(i);    // Words on this line
+			String[] tags = tagList.get(i);      // Matching tags on this line
+			for (int j = 0; j < words.length; j++) {
+				// Word we're looking at and its part of speech
+				String word = words[j];
+				String POS = tags[j];
 				
-				// If the word is not already in emissions, put it there
-				if (!emissions.containsKey(word)) {
-					emissions.put(word, new HashMap<String, Double>());
-				}
-				// Add the corresponding part of speech as key of inner map
-				if (!emissions.get(word).containsKey(POS)) {
-					// Occurred once, so frequency is one
-					emissions.get(word).put(POS, 1.0);
-				}
-				else {
-					// Increment frequency by one, assign to that POS
-					Double newFrequency = emissions.get(word).get(POS) + 1;
-					emissions.get(word).put(POS, newFrequency);
-				}
+				// Count the word appearing as that part of speech
+				increment(counts.emissions, word, POS, 1.0);
 				
-				// If POS not already in transitions, put it there
-				if (!transitions.containsKey(POS)) {
-					transitions.put(POS, new HashMap<String, Double>());
+				// Make sure POS has a row in transitions, even if it never
+				// has a following tag
+				if (!counts.transitions.containsKey(POS)) {
+					counts.transitions.put(POS, new HashMap<String, Double>());
 				}
 				// If j is 0, we're at the beginning of a sentence
 				if (j == 0) {
-					if (!transitions.containsKey("#")) {
-						transitions.put("#", new HashMap<String, Double>());
-						transitions.get("#").put(POS, 1.0);
-					}
-					else if (!transitions.get("#").containsKey(POS)) {
-						transitions.get("#").put(POS, 1.0);
-					}
-					else {
-						Double newFrequency = transitions.get("#").get(POS) + 1;
-						transitions.get("#").put(POS, newFrequency);
-					}
+					increment(counts.transitions, "#", POS, 1.0);
 				}
-				// Add POS tag following that POS
-				if (j < corpusTags.get(i).length - 1) {
-					// Tag after current tag
-					String nextPOS = corpusTags.get(i)[j + 1];
-					if (!transitions.get(POS).containsKey(nextPOS)) {
-						// Occurred once, so frequency is one
-						transitions.get(POS).put(nextPOS, 1.0);
-					}
-					else {
-						// Increment frequency by one, assign to transition
-						Double newFrequency = transitions.get(POS).get(nextPOS) + 1;
-						transitions.get(POS).put(nextPOS, newFrequency);
-					}
+				// Count the POS tag following this POS
+				if (j < tags.length - 1) {
+					increment(counts.transitions, POS, tags[j + 1], 1.0);
+				}
+				// Count POS following the two tags before it, "#" before the start
+				if (counts.trigrams != null) {
+					String history = (j < 2 ? "#" : tags[j - 2]) + " " + (j < 1 ? "#" : 
+					tags[j - 1]);
+					increment(counts.trigrams, history, POS, 1.0);
 				}
 			}
 		}
+	}
+	
+	/**
+	 * Add amount to the count stored under outer key, inner key
+	 * Removes entries (and then empty rows) that drop to zero
+	 */
+	private static void increment(HashMap<String, HashMap<String, Double>> counts, 
+	String outer, String inner, double amount) {
+		HashMap<String, Double> row = counts.get(outer);
+		// If the row isn't there yet, put it there
+		if (row == null) {
+			row = new HashMap<String, Double>();
+			counts.put(outer, row);
+		}
+		Double oldCount = row.get(inner);
+		double newCount = (oldCount == null ? 0.0 : oldCount) + amount;
+		if (newCount > 0) {
+			row.put(inner, newCount);
+		}
+		else {
+			// Nothing left, so forget the entry entirely
+			row.remove(inner);
+			if (row.isEmpty()) {
+				counts.remove(outer);
+			}
+		}
+	}
+	
+	/**
+	 * Add (sign 1) or subtract (sign -1) every count in source to target
+	 */
+	private static void addCounts(HashMap<String, HashMap<String, Double>> target, 
+	HashMap<String, HashMap<String, Double>> source, double sign) {
+		for (String outer: source.keySet()) {
+			HashMap<String, Double> row = source.get(outer);
+			// Keep rows that only exist to mark a tag as seen
+			if (sign > 0 && !target.containsKey(outer)) {
+				target.put(outer, new HashMap<String, Double>());
+			}
+			for (String inner: row.keySet()) {
+				increment(target, outer, inner, sign * row.get(inner));
+			}
+		}
+	}
+	
+	/**
+	 * Turn emission and transition counts into log probabilities, and make
+	 * them the current model. The count maps are reused for the model.
+	 * @param counts count tables; trigrams are used only if present
+	 */
+	private void normalize(Counts counts) {
+		HashMap<String, HashMap<String, Double>> emissionCounts = counts.emissions;
+		HashMap<String, HashMap<String, Double>> transitionCounts = counts.transitions;
+		// Trigram smoothing needs the raw transition counts
+		HashMap<String, HashMap<String, Double>> rawTransitions = null;
+		if (counts.trigrams != null) {
+			rawTransitions = new HashMap<String, HashMap<String, Double>>();
+			addCounts(rawTransitions, transitionCounts, 1.0);
+		}
 		
-		// Map to store frequencies of POS tags
+		// Map to store how many times any word appears as each POS tag
 		HashMap<String, Double> frequencyMap = new HashMap<String, Double>();
-		for (String word: emissions.keySet()) {
-			for (String POS: emissions.get(word).keySet()) {
-				// Look at how many times any word appears as tag
-				Double overallTagFrequency = 0.0;
-				if (emissions.get(word).containsKey(POS)) {
-					// Keep track of emission frequency
-					overallTagFrequency += emissions.get(word).get(POS);
-				}
-				// If frequency map doesn't have POS, add it
+		for (String word: emissionCounts.keySet()) {
+			for (String POS: emissionCounts.get(word).keySet()) {
+				// Add this word's count to the total for the tag
+				Double tagFrequency = emissionCounts.get(word).get(POS);
 				if (!frequencyMap.containsKey(POS)) {
-					frequencyMap.put(POS, overallTagFrequency);
+					frequencyMap.put(POS, tagFrequency);
 				}
 				else {
-					// If POS already in frequency map, add new value to
-					// existing value
-					Double newFrequency = frequencyMap.get(POS) + 1;
-					frequencyMap.put(POS, newFrequency);
+					frequencyMap.put(POS, frequencyMap.get(POS) + tagFrequency);
 				}
 			}
 		}
 		
 		// Go over all states, normalize emission probabilities
-		for (String word: emissions.keySet()) {
-			for (String POS: emissions.get(word).keySet()) {
+		for (String word: emissionCounts.keySet()) {
+			for (String POS: emissionCounts.get(word).keySet()) {
 				// Look at how many times word appears as that tag
-				Double tagFrequency = emissions.get(word).get(POS);
+				Double tagFrequency = emissionCounts.get(word).get(POS);
 				Double overallTagFrequency = frequencyMap.get(POS);
 				// Assign the probability of word appearing as POS tag divided
 				// by any word appearing as that tag to the word
 				Double emissionProbability = Math.log(tagFrequency / 
 				overallTagFrequency);
-				emissions.get(word).put(POS, emissionProbability);
+				emissionCounts.get(word).put(POS, emissionProbability);
 			}
 		}
 		
 		// Go over all states, normalize transition probabilities
-		for (String tag1: transitions.keySet()) {
+		for (String tag1: transitionCounts.keySet()) {
 			// Look at how many times any tag follows tag1
 			Double overallTransitionFrequency = 0.0;
-			for (String otherTag: transitions.get(tag1).keySet()) {
+			for (String otherTag: transitionCounts.get(tag1).keySet()) {
 				// Keep track of transition frequency
-				overallTransitionFrequency += transitions.get(tag1).
+				overallTransitionFrequency += transitionCounts.get(tag1).
 				get(otherTag);
 			}
-			for (String tag2: transitions.get(tag1).keySet()) {
+			for (String tag2: transitionCounts.get(tag1).keySet()) {
 				// Look at how many times tag2 follows tag1
-				Double transitionFrequency = transitions.get(tag1).get(tag2);
+				Double transitionFrequency = transitionCounts.get(tag1).get(tag2);
 				// Transition probability is number of times tag2 follows tag1
 				// divided by number of times any tag follows tag1
 				Double transitionProbability = Math.log(transitionFrequency / 
 				overallTransitionFrequency);
-				transitions.get(tag1).put(tag2, transitionProbability);
+				transitionCounts.get(tag1).put(tag2, transitionProbability);
 			}
 		}
+		
+		// The normalized tables are now the model
+		emissions = emissionCounts;
+		transitions = transitionCounts;
+		index();
+		// Second-order transitions, indexed by the new tag IDs
+		trigramModel = rawTransitions == null ? null : new TrigramModel(tagNames, 
+		counts.trigrams, rawTransitions);
+		modelChanged();
+	}
+	
+	/**
+	 * Index the emission and transition maps by word and tag ID, so
+	 * tagging works on arrays instead of hashing strings for every lookup
+	 */
+	private void index() {
+		// Sorted vocabulary, so word IDs don't depend on map order
+		ArrayList<String> words = new ArrayList<String>(emissions.keySet());
+		Collections.sort(words);
+		Vocabulary newVocabulary = new Vocabulary(words);
+		
+		// Every tag seen in either map, except the sentence start
+		TreeSet<String> tags = new TreeSet<String>(transitions.keySet());
+		for (String word: words) {
+			tags.addAll(emissions.get(word).keySet());
+		}
+		tags.remove("#");
+		String[] newTagNames = tags.toArray(new String[tags.size()]);
+		HashMap<String, Integer> tagIds = new HashMap<String, Integer>();
+		for (int t = 0; t < newTagNames.length; t++) {
+			tagIds.put(newTagNames[t], t);
+		}
+		
+		// Transitions we never saw can't happen, so they score -infinity
+		double[] newStartScores = new double[newTagNames.length];
+		double[][] newTransitionScores = new double[newTagNames.length][newTagNames.length];
+		Arrays.fill(newStartScores, Double.NEGATIVE_INFINITY);
+		for (double[] row: newTransitionScores) {
+			Arrays.fill(row, Double.NEGATIVE_INFINITY);
+		}
+		for (String tag1: transitions.keySet()) {
+			for (String tag2: transitions.get(tag1).keySet()) {
+				double score = transitions.get(tag1).get(tag2);
+				if (tag1.equals("#")) {
+					newStartScores[tagIds.get(tag2)] = score;
+				}
+				else {
+					newTransitionScores[tagIds.get(tag1)][tagIds.get(tag2)] = score;
+				}
+			}
+		}
+		
+		// Emissions we never saw score UNKNOWN_VALUE, as for unknown words
+		double[] newUnknownScores = new double[newTagNames.length];
+		Arrays.fill(newUnknownScores, UNKNOWN_VALUE);
+		double[][] newEmissionScores = null;
+		CompactEmissions newCompactEmissions = null;
+		emissionMapBytes = CompactEmissions.mapBytes(emissions);
+		if (compact) {
+			// One flat row per word, holding only the tags seen with it
+			newCompactEmissions = new CompactEmissions(words, emissions, tagIds);
+		}
+		else {
+			// One full row of scores per word
+			newEmissionScores = new double[words.size()][];
+			for (int w = 0; w < words.size(); w++) {
+				newEmissionScores[w] = newUnknownScores.clone();
+				HashMap<String, Double> wordEmissions = emissions.get(words.get(w));
+				for (String POS: wordEmissions.keySet()) {
+					newEmissionScores[w][tagIds.get(POS)] = wordEmissions.get(POS);
+				}
+			}
+		}
+		
+		vocabulary = newVocabulary;
+		tagNames = newTagNames;
+		startScores = newStartScores;
+		transitionScores = newTransitionScores;
+		emissionScores = newEmissionScores;
+		compactEmissions = newCompactEmissions;
+		unknownScores = newUnknownScores;
+		if (compact) {
+			// The arrays hold everything tagging needs, so drop the maps
+			emissions = null;
+		}
+	}
+	
+	/**
+	 * New model, so anything cached for the old one is out of date
+	 */
+	private void modelChanged() {
+		modelVersion = modelVersions.incrementAndGet();
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * Choose whether emissions are stored in compact arrays (rows of short
+	 * tag IDs and float log probabilities) instead of per-word maps and
+	 * rows. Applies to the current model and every later one. Compacting
+	 * drops the emission maps, so switching back only takes effect at the
+	 * next training.
+	 */
+	public void setCompact(boolean compact) {
+		this.compact = compact;
+		// Re-index the current model, if its maps are still around
+		if (emissions != null) {
+			index();
+			modelChanged();
+		}
+	}
+	
+	/**
+	 * Choose a first-order (bigram, 2) or second-order (trigram, 3) model
+	 * Tagging switches right away if the model was trained with trigram
+	 * counts; otherwise order 3 takes effect at the next training, since
+	 * trigram mode needs counts of tag trigrams.
+	 */
+	public void setOrder(int order) {
+		if (order != 2 && order != 3) {
+			throw new IllegalArgumentException("Order must be 2 or 3: " + order);
+		}
+		if (order != this.order) {
+			this.order = order;
+			// Tags already cached may have come from the other order
+			modelChanged();
+		}
+	}
+	
+	/**
+	 * Choose the kernel for the inner loop of bigram tagging, for
+	 * example ViterbiKernel.fastest(); every kernel gives the same tags
+	 */
+	public void setKernel(ViterbiKernel kernel) {
+		this.kernel = kernel;
+	}
+	
+	/**
+	 * Estimate the memory used by each way of storing emissions
+	 * @return description of the estimates
+	 */
+	public String memoryReport() {
+		int numWords = vocabulary.size();
+		long denseBytes = CompactEmissions.denseBytes(numWords, tagNames.length);
+		String report = "Emissions for " + numWords + " words and " + tagNames.length + 
+		" tags: maps ~" + emissionMapBytes / 1024 + " KB, full rows ~" + denseBytes / 1024 + 
+		" KB";
+		if (compactEmissions != null) {
+			report += ", compact ~" + compactEmissions.bytes() / 1024 + " KB (" + 
+			compactEmissions.size() + " word/tag pairs, in use)";
+		}
+		else {
+			report += " (in use)";
+		}
+		return report;
+	}
+	
+	/**
+	 * Put a cache in front of tag(), or remove it with null
+	 * The cache is emptied whenever the model is retrained.
+	 */
+	public void setCache(TagCache cache) {
+		this.cache = cache;
 	}
 	
 	/**
@@ -204,102 +687,332 @@ public class POSTagger {
 	
 	/**
 	 * Use Viterbi tagging to find the best sequence of tags for a line
-	 * Keep track of best probability for current and previous states
+	 * Splits the line on spaces and ignores case
 	 * @return ArrayList of tags
 	 */
 	public ArrayList<String> tag(String input) {
-		Double emissionsValue;    // What is the value of the word in emissions?
-		
-		// Map to keep track of possible states
-		ArrayList<Map<String, String>> backTrace = new ArrayList<Map<String, String>>();
-		// Map to keep track of best possible score from previous
-		HashMap<String, Double> prevScores = new HashMap<String, Double>();
-		
-		// Make all input to lower case
-		String lowerCaseLine = input.toLowerCase();
-		// Split input based on spaces
-		String[] splitInput = lowerCaseLine.split(" ");
-		// Initially previous score is 0, beginning of sentence so tag is *
-		prevScores.put("#", 0.0);
-		
-		// Initialize backTrace ArrayList
-		for (int i = 0; i < splitInput.length; i ++) {
-			backTrace.add(i, new HashMap<String, String>());
-		}
-		
-		// Loop through every word in the input sentence
-		for (int i = 0; i < splitInput.length; i++) {
-			// New map to store next scores
-			HashMap<String, Double> nextScores = new HashMap<String, Double>();
-			// For each possible state
-			for (String state: prevScores.keySet()) {
-				if (transitions.get(state) != null) {
-					// For each possible transition from state to next state
-					for (String nextState: transitions.get(state).keySet()) {
-						// Check if we've seen emissions value before
-						if (!emissions.containsKey(splitInput[i])) {
-							// If we haven't, set it to U
-							emissionsValue = UNKNOWN_VALUE;
-						}
-						else if (!emissions.get(splitInput[i]).containsKey(nextState)) {
-							// Set it to U if we haven't seen POS
-							emissionsValue = UNKNOWN_VALUE;
-						}
-						else {
-							// If we have, just use its value
-							emissionsValue = emissions.get(splitInput[i]).
-							get(nextState);
-						}
-						// Find next score based on previous score
-						Double nextScore = prevScores.get(state) + transitions.get(state).
-						get(nextState) + emissionsValue;
-						// Adjust nextScores values
-						if (!nextScores.containsKey(nextState) || nextScore > nextScores.
-						get(nextState)) {
-							nextScores.put(nextState, nextScore);
-							// Remember that we got to next state for i from that state
-							backTrace.get(i).put(nextState, state);
+		return tag(Tokenizer.wordIds(input, vocabulary));
+	}
+	
+	/**
+	 * Tag a sentence that has already been split into words
+	 * @return ArrayList of tags
+	 */
+	public ArrayList<String> tag(String[] words) {
+		return tag(Tokenizer.wordIds(words, vocabulary));
+	}
+	
+	/**
+	 * Tag a sentence given as vocabulary IDs, using the cache if there is one
+	 * @param wordIds vocabulary ID of each word (Vocabulary.NOT_FOUND if unknown)
+	 * @return ArrayList of tags, empty if no sequence of tags is possible
+	 */
+	public ArrayList<String> tag(int[] wordIds) {
+		TagCache currentCache = cache;
+		if (currentCache == null) {
+			return decode(wordIds);
+		}
+		long version = modelVersion;
+		String[] cachedTags = currentCache.get(version, wordIds);
+		if (cachedTags != null) {
+			return new ArrayList<String>(Arrays.asList(cachedTags));
+		}
+		// Not cached yet, so tag it and remember the result
+		ArrayList<String> tagSequence = decode(wordIds);
+		currentCache.put(version, wordIds, tagSequence.toArray(new String[tagSequence.size()]));
+		return tagSequence;
+	}
+	
+	/**
+	 * Tag with whichever model order is in use
+	 */
+	private ArrayList<String> decode(int[] wordIds) {
+		if (order == 3 && trigramModel != null) {
+			return trigramViterbi(wordIds);
+		}
+		return viterbi(wordIds);
+	}
+	
+	/**
+	 * Use Viterbi tagging to find the best sequence of tags for a line
+	 * Keep track of best score for current and previous states
+	 * @param wordIds vocabulary ID of each word (Vocabulary.NOT_FOUND if unknown)
+	 * @return ArrayList of tags, empty if no sequence of tags is possible
+	 */
+	private ArrayList<String> viterbi(int[] wordIds) {
+		int numTags = tagNames.length;
+		// Store the most likely sequence of tags
+		ArrayList<String> tagSequence = new ArrayList<String>(wordIds.length);
+		if (wordIds.length == 0) {
+			return tagSequence;
+		}
+		
+		// backTrace[i][tag] is the best previous tag for tag at word i
+		int[][] backTrace = new int[wordIds.length][numTags];
+		// Best scores ending in each tag, for the previous and next word
+		double[] prevScores = new double[numTags];
+		double[] nextScores = new double[numTags];
+		// Space to unpack compact emissions into
+		double[] emissionBuffer = compactEmissions == null ? null : new double[numTags];
+		
+		// First word follows the start of the sentence, "#"
+		double[] emissionsValue = emissionRow(wordIds[0], emissionBuffer);
+		for (int tag = 0; tag < numTags; tag++) {
+			prevScores[tag] = startScores[tag] + emissionsValue[tag];
+		}
+		
+		// Loop through every other word in the input sentence
+		for (int i = 1; i < wordIds.length; i++) {
+			emissionsValue = emissionRow(wordIds[i], emissionBuffer);
+			// For each possible next state, find the best state to come from
+			kernel.maxPlus(prevScores, transitionScores, nextScores, backTrace[i]);
+			// Then add how likely each next state is to produce the word
+			for (int nextState = 0; nextState < numTags; nextState++) {
+				nextScores[nextState] += emissionsValue[nextState];
+			}
+			// Set previous scores equal to next scores
+			double[] swap = prevScores; prevScores = nextScores; nextScores = swap;
+		}
+		
+		// Determine most likely tag for the last item
+		int mostLikelyTag = -1;
+		double highestScore = Double.NEGATIVE_INFINITY;
+		for (int tag = 0; tag < numTags; tag++) {
+			if (prevScores[tag] > highestScore) {
+				highestScore = prevScores[tag]; mostLikelyTag = tag;
+			}
+		}
+		if (mostLikelyTag < 0) {
+			// No tag sequence can produce this sentence
+			return tagSequence;
+		}
+		
+		// Use backTrace to determine most probable sequence of tags,
+		// starting at the end of the list and working backwards
+		for (int i = wordIds.length - 1; i >= 0; i--) {
+			tagSequence.add(tagNames[mostLikelyTag]);
+			mostLikelyTag = backTrace[i][mostLikelyTag];
+		}
+		// Reverse the sequence of tags
+		Collections.reverse(tagSequence);
+		return tagSequence;
+	}
+	
+	/**
+	 * Second-order Viterbi tagging over a sparse lattice
+	 * A state is a pair (previous tag, tag). Only pairs reached from a
+	 * surviving state are kept, a known word only takes tags it was seen
+	 * with, and after each word states more than TRIGRAM_BEAM behind the
+	 * best (or beyond the best MAX_TRIGRAM_STATES) are pruned. At most
+	 * MAX_TRIGRAM_STATES survive, so every buffer is sized once per sentence.
+	 * @param wordIds vocabulary ID of each word (Vocabulary.NOT_FOUND if unknown)
+	 * @return ArrayList of tags, empty if no tag sequence can produce the sentence
+	 */
+	private ArrayList<String> trigramViterbi(int[] wordIds) {
+		int numTags = tagNames.length;
+		// Store the most likely sequence of tags
+		ArrayList<String> tagSequence = new ArrayList<String>(wordIds.length);
+		if (wordIds.length == 0 || numTags == 0) {
+			return tagSequence;
+		}
+		double[] emissionBuffer = compactEmissions == null ? null : new double[numTags];
+		int[] candidates = new int[numTags];    // Tags the current word may take
+		
+		// Survivors of each word i sit at i * MAX_TRIGRAM_STATES: their tags and
+		// best previous state
+		int[] stateTags = new int[wordIds.length * MAX_TRIGRAM_STATES];
+		int[] backTrace = new int[wordIds.length * MAX_TRIGRAM_STATES];
+		// States for the previous word; before the sentence there's just (#, #)
+		int[] prevTag1 = new int[MAX_TRIGRAM_STATES];
+		int[] prevTag2 = new int[MAX_TRIGRAM_STATES];
+		double[] prevScores = new double[MAX_TRIGRAM_STATES];
+		prevTag1[0] = trigramModel.start(); prevTag2[0] = trigramModel.start();
+		int prevSize = 1;
+		// States reached from the previous word, before pruning; each is a distinct
+		// (previous tag, tag) pair, and there are at most MAX_TRIGRAM_STATES previous tags
+		int capacity = MAX_TRIGRAM_STATES * numTags;
+		int[] nextTag1 = new int[capacity];
+		int[] nextTag2 = new int[capacity];
+		double[] nextScores = new double[capacity];
+		int[] nextBack = new int[capacity];
+		double[] heap = new double[MAX_TRIGRAM_STATES];
+		// Surviving states grouped by their tag, in order of first appearance
+		int[] groupTags = new int[MAX_TRIGRAM_STATES];
+		int[] groupFirst = new int[numTags + 1];
+		int[] groupLast = new int[numTags + 1];
+		int[] nextInGroup = new int[MAX_TRIGRAM_STATES];
+		Arrays.fill(groupLast, -1);
+		// Best score into each (group tag, candidate) pair, and where it came from
+		double[] bestScores = new double[numTags];
+		int[] bestStates = new int[numTags];
+		
+		for (int i = 0; i < wordIds.length; i++) {
+			double[] emissionsValue = emissionRow(wordIds[i], emissionBuffer);
+			// Unknown words can be any tag; known words only the tags seen with them
+			int numCandidates = 0;
+			for (int tag = 0; tag < numTags; tag++) {
+				if (wordIds[i] == Vocabulary.NOT_FOUND || emissionsValue[tag] > UNKNOWN_VALUE) {
+					candidates[numCandidates++] = tag;
+				}
+			}
+			
+			// Group the surviving states by tag: states sharing a tag lead to
+			// the same (previous tag, tag) pairs
+			int numGroups = 0;
+			for (int state = 0; state < prevSize; state++) {
+				int tag = prevTag2[state];
+				if (groupLast[tag] < 0) {
+					groupTags[numGroups++] = tag; groupFirst[tag] = state;
+				}
+				else {
+					nextInGroup[groupLast[tag]] = state;
+				}
+				groupLast[tag] = state; nextInGroup[state] = -1;
+			}
+			
+			// Extend each group by every candidate tag, keeping the best way into
+			// each pair; the first state of the group wins ties
+			int size = 0;
+			for (int g = 0; g < numGroups; g++) {
+				int tag1 = groupTags[g];
+				int state = groupFirst[tag1];
+				double[] transitionRow = trigramModel.row(prevTag1[state], tag1);
+				for (int c = 0; c < numCandidates; c++) {
+					int tag = candidates[c];
+					bestScores[c] = prevScores[state] + transitionRow[tag] + emissionsValue[tag];
+					bestStates[c] = state;
+				}
+				for (state = nextInGroup[state]; state >= 0; state = nextInGroup[state]) {
+					transitionRow = trigramModel.row(prevTag1[state], tag1);
+					for (int c = 0; c < numCandidates; c++) {
+						int tag = candidates[c];
+						double score = prevScores[state] + transitionRow[tag] + emissionsValue[tag];
+						if (score > bestScores[c]) {
+							bestScores[c] = score; bestStates[c] = state;
 						}
 					}
 				}
+				for (int c = 0; c < numCandidates; c++) {
+					nextTag1[size] = tag1; nextTag2[size] = candidates[c];
+					nextScores[size] = bestScores[c]; nextBack[size] = bestStates[c];
+					size++;
+				}
+				groupLast[tag1] = -1;
 			}
-			// Set previous scores equal to next scores
-			prevScores = nextScores;
+			
+			// Prune, keeping survivors in order and at most MAX_TRIGRAM_STATES of them.
+			// Every state above the threshold survives; states tied at it only fill
+			// the slots left, so a tie can never push out a better state
+			double threshold = pruningThreshold(nextScores, size, heap);
+			int tiesLeft = MAX_TRIGRAM_STATES;
+			for (int next = 0; next < size; next++) {
+				if (nextScores[next] > threshold) {
+					tiesLeft--;
+				}
+			}
+			int kept = 0;
+			int layer = i * MAX_TRIGRAM_STATES;
+			for (int next = 0; next < size && kept < MAX_TRIGRAM_STATES; next++) {
+				if (nextScores[next] > threshold || (nextScores[next] == threshold &&
+				tiesLeft-- > 0)) {
+					prevTag1[kept] = nextTag1[next]; prevTag2[kept] = nextTag2[next];
+					prevScores[kept] = nextScores[next];
+					stateTags[layer + kept] = nextTag2[next]; backTrace[layer + kept] = nextBack[next];
+					kept++;
+				}
+			}
+			prevSize = kept;
 		}
 		
-		// Store the most likely sequence of tags
-		ArrayList<String> tagSequence = new ArrayList<String>();
-		// Most likely tag for the last item
-		String mostLikelyTag = "";
-		// Frequency of most likely tag
-		Double highestFrequency = Double.NEGATIVE_INFINITY;
-		
-		// Determine most likely tag for last item
-		for (String tag: prevScores.keySet()) {
-			if (prevScores.get(tag) > highestFrequency) {
-				highestFrequency = prevScores.get(tag);
-				mostLikelyTag = tag;
-			}
-		}
-		
-		// Use backTrace list to determine most probable sequence of tags
-		String previousTag = mostLikelyTag;
-		// Start at the end of the list, work backwards
-		int i = splitInput.length - 1;
-		while (!previousTag.equals("#")) {
-			// Add most likely tag to the sequence
-			tagSequence.add(mostLikelyTag);
-			// Get the most likely previous tag
-			previousTag = backTrace.get(i).get(mostLikelyTag);
-			// Decrement i and assign previous tag to new 
-			// most likely tag
-			mostLikelyTag = previousTag; i--;
+		// Determine most likely state for the last item
+		int mostLikelyState = 0;
+		for (int state = 1; state < prevSize; state++) {
+			if (prevScores[state] > prevScores[mostLikelyState]) {
+				mostLikelyState = state;
+			}
+		}
+		if (prevSize == 0 || prevScores[mostLikelyState] == Double.NEGATIVE_INFINITY) {
+			// No tag sequence can produce this sentence
+			return tagSequence;
+		}
+		// Follow the back pointers to the start, then reverse
+		for (int i = wordIds.length - 1; i >= 0; i--) {
+			tagSequence.add(tagNames[stateTags[i * MAX_TRIGRAM_STATES + mostLikelyState]]);
+			mostLikelyState = backTrace[i * MAX_TRIGRAM_STATES + mostLikelyState];
 		}
-		// Reverse the sequence of tags
 		Collections.reverse(tagSequence);
 		return tagSequence;
 	}
 	
+	/**
+	 * Lowest score a lattice state may have and still survive: within
+	 * TRIGRAM_BEAM of the best, and no lower than the MAX_TRIGRAM_STATES-th best
+	 * @param heap scratch space for MAX_TRIGRAM_STATES scores
+	 */
+	private static double pruningThreshold(double[] scores, int size, double[] heap) {
+		double best = Double.NEGATIVE_INFINITY;
+		for (int state = 0; state < size; state++) {
+			best = Math.max(best, scores[state]);
+		}
+		double threshold = best - TRIGRAM_BEAM;
+		if (size > MAX_TRIGRAM_STATES) {
+			// Select the best MAX_TRIGRAM_STATES scores inside the beam with a
+			// min-heap; once it's full, most states only cost one comparison
+			int heapSize = 0;
+			for (int state = 0; state < size; state++) {
+				double score = scores[state];
+				if (score < threshold) {
+					continue;
+				}
+				if (heapSize < MAX_TRIGRAM_STATES) {
+					// Sift the new score up from the bottom
+					int child = heapSize++;
+					while (child > 0 && heap[(child - 1) / 2] > score) {
+						heap[child] = heap[(child - 1) / 2];
+						child = (child - 1) / 2;
+					}
+					heap[child] = score;
+				}
+				else if (score > heap[0]) {
+					// Replace the lowest kept score and sift it down
+					int parent = 0;
+					while (2 * parent + 1 < heapSize) {
+						int child = 2 * parent + 1;
+						if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+							child++;
+						}
+						if (heap[child] >= score) {
+							break;
+						}
+						heap[parent] = heap[child];
+						parent = child;
+					}
+					heap[parent] = score;
+				}
+			}
+			if (heapSize == MAX_TRIGRAM_STATES) {
+				// Lowest of the best MAX_TRIGRAM_STATES
+				threshold = Math.max(threshold, heap[0]);
+			}
+		}
+		return threshold;
+	}
+	
+	/**
+	 * @param buffer where to unpack compact emissions; not needed otherwise
+	 * @return emission scores for every tag for the given word ID
+	 */
+	private double[] emissionRow(int wordId, double[] buffer) {
+		if (wordId == Vocabulary.NOT_FOUND) {
+			return unknownScores;
+		}
+		if (compactEmissions != null) {
+			compactEmissions.fillRow(wordId, unknownScores, buffer);
+			return buffer;
+		}
+		return emissionScores[wordId];
+	}
+	
 	/**
 	 * Take user input and tag it based on POS
 	 */
@@ -331,105 +1044,189 @@ public class POSTagger {
 	}
 	
 	/**
-	 * Train on small partition, test on all other partitions
-	 * Helper method for cross-validation
+	 * Train on all but one partition, test on the partition set aside
+	 * Helper method for cross-validation. The model is formed by taking
+	 * the held-out partition's counts away from the counts for all lines,
+	 * so no partition has to be counted twice. The fold gets its own model,
+	 * and its test sentences are tagged in parallel.
 	 * @param partitions number of partitions
 	 * @param first first partition to set aside
 	 * @param n lines to load and process
+	 * @param totalCounts counts over all lines
+	 * @param heldOutCounts counts for the partition set aside
 	 * @return percentage accuracy
 	 */
-	private double test(int partitions, int first, int n) {
-		// Tell the user we're still testing
-		System.out.print("... ");
-		// ArrayLists to store words we want to train and test on
-		ArrayList<String[]> wordsToTrain = new ArrayList<String[]>();
-		ArrayList<String[]> wordsToTest = new ArrayList<String[]>();
+	private double test(int partitions, int first, int n, Counts totalCounts, 
+	Counts heldOutCounts) {
+		// Training counts are everything except the partition set aside
+		Counts trainingCounts = totalCounts.copy();
+		trainingCounts.add(heldOutCounts, -1.0);
+		// Normalize only now that the counts are final, into this fold's model,
+		// which is set up the same way as this one
+		POSTagger foldModel = new POSTagger(corpusWords, corpusTags);
+		foldModel.compact = compact;
+		foldModel.order = order;
+		foldModel.kernel = kernel;
+		foldModel.normalize(trainingCounts);
 		
-		// ArrayLists to store tags we want to train and test on
-		ArrayList<String[]> tagsToTrain = new ArrayList<String[]>();
-		ArrayList<String[]> tagsToTest = new ArrayList<String[]>();
+		// Tag the lines set aside, one out of every partitions lines
+		int firstLine = (partitions - first) % partitions;
+		int heldOutLines = (Math.min(n, corpusWords.size()) - firstLine + partitions - 1) / 
+		partitions;
+		long[] tagCounts = new SentenceTask(foldModel, firstLine, partitions, 0, 
+		Math.max(heldOutLines, 0)).invoke();
 		
-		// Split the file into (1 / number of partitions) parts
-		for (int i = 0; i < Math.min(n, corpusWords.size()); i++) {
-			if ((i + first) % partitions == 0) {
-				// Test on one out of every n lines
-				wordsToTest.add(corpusWords.get(i));
-				tagsToTest.add(corpusTags.get(i));
-			}
-			else {
-				// Train on the remaining lines
-				wordsToTrain.add(corpusWords.get(i));
-				tagsToTrain.add(corpusTags.get(i));
-			}
+		// Return the percentage accuracy
+		return (((double) tagCounts[0] / tagCounts[1]) * 100);
+	}
+	
+	/**
+	 * Task to test one fold: builds the fold's model and tags its
+	 * held-out partition
+	 */
+	private class FoldTask extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+		
+		private int partitions, first, n;    // Which fold to test
+		private Counts totalCounts;          // Counts over all lines
+		private Counts heldOutCounts;        // Counts for the fold's partition
+		
+		public FoldTask(int partitions, int first, int n, Counts totalCounts, 
+		Counts heldOutCounts) {
+			this.partitions = partitions; this.first = first; this.n = n;
+			this.totalCounts = totalCounts; this.heldOutCounts = heldOutCounts;
 		}
-
-		// Train based on the words and tags to train
-		train(wordsToTrain, tagsToTrain, wordsToTrain.size());
-		
-		Double matchingTags = 0.0;    // number of tags that match
-		Double totalTags = 0.0;	      // number of tags we've seen
-		
-		// Tag based on model we just trained
-		for (int i = 0; i < wordsToTest.size(); i++) {
-			String sentenceToTest = "";
-			for (String word: wordsToTest.get(i)) {	
-				// Form sentence we want to test on
-				sentenceToTest += word + " ";
-			}
-			// Remove the last space in the sentence
-			sentenceToTest = sentenceToTest.substring(0, sentenceToTest.length() - 1);
-			// Tag each sample sentence
-			ArrayList<String> testingTags = tag(sentenceToTest);
-			for (int j = 0; j < testingTags.size(); j++) {
-				// If tag matches expected tag, add one to expected tags
-				if (testingTags.get(j).equals(tagsToTest.get(i)[j])) {
-					matchingTags += 1.0;
+		
+		protected Double compute() {
+			return test(partitions, first, n, totalCounts, heldOutCounts);
+		}
+	}
+	
+	/**
+	 * Task to tag a range of held-out sentences with one fold's model
+	 * Returns {matching tags, total tags}; whole-number counts add up the
+	 * same whichever way the range is split, so the result is deterministic
+	 */
+	private static class SentenceTask extends RecursiveTask<long[]> {
+		private static final long serialVersionUID = 1L;
+		
+		private POSTagger model;      // Fold model to tag with
+		private int firstLine;        // Corpus line of the first held-out sentence
+		private int step;             // Distance between held-out lines
+		private int from, to;         // Range of held-out sentences to tag
+		
+		public SentenceTask(POSTagger model, int firstLine, int step, int from, int to) {
+			this.model = model; this.firstLine = firstLine; this.step = step;
+			this.from = from; this.to = to;
+		}
+		
+		protected long[] compute() {
+			// Split the range until it is small enough to tag directly
+			if (to - from > SENTENCES_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				SentenceTask left = new SentenceTask(model, firstLine, step, from, middle);
+				left.fork();
+				long[] rightCounts = new SentenceTask(model, firstLine, step, middle, to).
+				compute();
+				long[] leftCounts = left.join();
+				return new long[] {leftCounts[0] + rightCounts[0], 
+				leftCounts[1] + rightCounts[1]};
+			}
+			
+			long matchingTags = 0;    // number of tags that match
+			long totalTags = 0;       // number of tags we've seen
+			for (int k = from; k < to; k++) {
+				int i = firstLine + k * step;    // Corpus line being tested
+				// Tag each sample sentence, already split into words
+				ArrayList<String> testingTags = model.tag(model.corpusWords.get(i));
+				for (int j = 0; j < testingTags.size(); j++) {
+					// If tag matches expected tag, add one to expected tags
+					if (testingTags.get(j).equals(model.corpusTags.get(i)[j])) {
+						matchingTags++;
+					}
 				}
-				// Add one to total number of tags
-				totalTags += 1.0;
+				// Every expected tag counts, so a sentence with no tag sequence
+				// (an empty list) counts as all wrong, as in Evaluation
+				totalTags += model.corpusTags.get(i).length;
 			}
+			return new long[] {matchingTags, totalTags};
 		}
-		// Return the percentage accuracy
-		return((matchingTags / totalTags) * 100);
 	}
 	
 	/**
 	 * Cross-validate the data set, returning an average probability
+	 * Counts each partition once, then builds every fold's model from
+	 * those counts instead of retraining from scratch. Folds are tested
+	 * concurrently on a fork/join pool, but averaged in fold order, so
+	 * the result is the same as testing them one after another.
 	 * @param partitions number of partitions
 	 * @param n lines to load and process
 	 * @return average percent accuracy
 	 */
 	public double crossValidate(int partitions, int n) {
-		// Tell the user we're testing
-		System.out.print("Now testing... ");
-		// Store the average percent accuracy
-		Double averagePercentAccuracy = 0.0; 
-		for (int i = 0; i < partitions; i ++) {
-			// Percent accuracy from training on portion
-			Double percentAccuracy = test(partitions, i, n);
-			// Add to average percent accuracy
-			averagePercentAccuracy += percentAccuracy;
+		// Count tables for each partition, and for all partitions together
+		ArrayList<Counts> partitionCounts = new ArrayList<Counts>();
+		Counts totalCounts = new Counts(order == 3);
+		for (int i = 0; i < partitions; i++) {
+			Counts counts = new Counts(order == 3);
+			// Partition i holds the lines tested when partition i is set aside
+			count(corpusWords, corpusTags, (partitions - i) % partitions, partitions, n, 
+			counts);
+			partitionCounts.add(counts);
+			totalCounts.add(counts, 1.0);
+		}
+		
+		// Start one task per fold; each only reads the shared count tables
+		ArrayList<FoldTask> folds = new ArrayList<FoldTask>();
+		for (int i = 0; i < partitions; i++) {
+			folds.add(new FoldTask(partitions, i, n, totalCounts, partitionCounts.get(i)));
+		}
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			for (FoldTask fold: folds) {
+				pool.execute(fold);
+			}
+			
+			// Store the average percent accuracy
+			Double averagePercentAccuracy = 0.0; 
+			for (FoldTask fold: folds) {
+				// Add each fold's accuracy to the average, in fold order
+				averagePercentAccuracy += fold.join();
+			}
+			// Get and return average percent accuracy
+			averagePercentAccuracy /= (partitions);
+			return (averagePercentAccuracy);
+		}
+		finally {
+			pool.shutdown();
 		}
-		// Get and return average percent accuracy
-		averagePercentAccuracy /= (partitions);
-		return (averagePercentAccuracy);
 	}
 	
 	/**
 	 * Main method for testing
+	 * Arguments (optional): words file and tags file, plain or compressed
 	 */
 	public static void main(String[] args) {
 		POSTagger test = new POSTagger();
 		try {
-			test.load();
-			System.out.println("\n\nAverage accuracy is " + test.crossValidate(5, 1000) +
-			"%\n");
+			if (args.length >= 2) {
+				test.load(args[0], args[1]);
+			}
+			else {
+				test.load();
+			}
+			// Tell the user we're testing
+			System.out.print("Now testing... ");
+			System.out.println("\n\nAverage accuracy is " + test.crossValidate(5, 
+			test.corpusWords.size()) + "%\n");
+			test.setCompact(true);
 			test.train(); 
+			System.out.println(test.memoryReport());
 			test.tagInput();
 		} 
 		catch (IOException e) {
 			System.err.println("Either no such file or directory exists, or "
-			+ "the file is corrupt!");
+			+ "the file is corrupt! (" + e.getMessage() + ")");
 		}
 	}
 }
@@ -0,0 +1,31 @@
+import java.util.*;
+
+/**
+ * Max-plus Viterbi step with plain loops
+ * @author Matt Krantz
+ *
+ */
+public class ScalarViterbiKernel extends ViterbiKernel {
+	public void maxPlus(double[] prevScores, double[][] transitions, double[] bestScores, 
+	int[] backTrace) {
+		Arrays.fill(bestScores, Double.NEGATIVE_INFINITY);
+		Arrays.fill(backTrace, -1);
+		// For each possible state, see which next states it is the best way into;
+		// states are tried in order and only a strictly better score wins
+		for (int state = 0; state < prevScores.length; state++) {
+			double prevScore = prevScores[state];
+			double[] row = transitions[state];
+			for (int nextState = 0; nextState < bestScores.length; nextState++) {
+				double score = prevScore + row[nextState];
+				if (score > bestScores[nextState]) {
+					bestScores[nextState] = score; backTrace[nextState] = state;
+				}
+			}
+		}
+	}
+	
+	// Name of the kernel
+	public String toString() {
+		return "scalar";
+	}
+}
@@ -0,0 +1,264 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Bounded least-recently-used cache of tag sequences, keyed by a
+ * sentence's word IDs
+ * Sentences that only differ in case or in which unknown words they use
+ * map to the same IDs, and so share an entry. Every entry belongs to one
+ * model version; looking up with a newer version empties the cache, so a
+ * retrained model never sees tags from the old one. The cache is split
+ * into independently locked segments so concurrent taggers rarely wait
+ * on each other. The limits hold for the cache as a whole: a put first
+ * evicts from its own segment, least recently used first, then from the
+ * others. Small caches use a single segment, so they are exactly LRU.
+ * @author Matt Krantz
+ *
+ */
+public class TagCache {
+	private static final int MAX_SEGMENTS = 16;             // Most segments to split the cache into
+	private static final int MIN_SEGMENT_ENTRIES = 64;      // Fewest entries a segment is sized for
+
+	private Segment[] segments;                     // Independently locked parts of the cache
+	private volatile long version;                  // Model version of the cached tags
+	private int maxEntries;                         // Most sentences to keep
+	private long maxWeight;                         // Most words to keep
+
+	private AtomicInteger entries = new AtomicInteger();    // Sentences held, over all segments
+	private AtomicLong weight = new AtomicLong();           // Words held, over all segments
+
+	private AtomicLong hits = new AtomicLong();         // Lookups answered from the cache
+	private AtomicLong misses = new AtomicLong();       // Lookups that had to run Viterbi
+	private AtomicLong evictions = new AtomicLong();    // Entries pushed out by the limits
+
+	/**
+	 * Cache holding at most maxEntries sentences and maxWeight words
+	 * @param maxEntries most sentences to keep
+	 * @param maxWeight most words, summed over all kept sentences, to keep
+	 */
+	public TagCache(int maxEntries, long maxWeight) {
+		if (maxEntries < 1 || maxWeight < 1) {
+			throw new IllegalArgumentException("Cache limits must be positive: " +
+			maxEntries + " entries, " + maxWeight + " weight");
+		}
+		this.maxEntries = maxEntries; this.maxWeight = maxWeight;
+		// Power-of-two number of segments, only as many as the cache is big enough for
+		int numSegments = 1;
+		while (numSegments * 2 <= Math.min(MAX_SEGMENTS, maxEntries / MIN_SEGMENT_ENTRIES)) {
+			numSegments *= 2;
+		}
+		segments = new Segment[numSegments];
+		for (int i = 0; i < numSegments; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	/**
+	 * Look up the tags for a sentence
+	 * @param modelVersion version of the model doing the tagging
+	 * @param wordIds word IDs of the sentence
+	 * @return cached tags, or null if the sentence isn't cached
+	 */
+	public String[] get(long modelVersion, int[] wordIds) {
+		checkVersion(modelVersion);
+		Key key = new Key(wordIds);
+		String[] tags = segments[segmentIndex(key)].get(key, modelVersion);
+		if (tags == null) {
+			misses.incrementAndGet();
+		}
+		else {
+			hits.incrementAndGet();
+		}
+		return tags;
+	}
+
+	/**
+	 * Remember the tags for a sentence
+	 * Sentences heavier than the whole cache are not cached
+	 * @param modelVersion version of the model that produced the tags
+	 * @param wordIds word IDs of the sentence (copied)
+	 * @param tags tags for the sentence
+	 */
+	public void put(long modelVersion, int[] wordIds, String[] tags) {
+		checkVersion(modelVersion);
+		if (wordIds.length > maxWeight) {
+			return;
+		}
+		Key key = new Key(wordIds.clone());
+		int home = segmentIndex(key);
+		segments[home].put(key, new Entry(modelVersion, tags));
+
+		// Evict until within the limits: from this segment while it holds anything
+		// besides the new entry, then from the others. Only one segment is locked
+		// at a time.
+		int tried = 0;
+		while ((entries.get() > maxEntries || weight.get() > maxWeight) &&
+		tried < segments.length) {
+			Segment segment = segments[(home + tried) & (segments.length - 1)];
+			if (!segment.evictEldest(tried == 0 ? key : null)) {
+				tried++;
+			}
+		}
+	}
+
+	/**
+	 * Forget every cached sentence
+	 */
+	public void clear() {
+		for (Segment segment: segments) {
+			segment.clear();
+		}
+	}
+
+	// Getters for the counters, to help size the cache
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return number of sentences currently cached
+	 */
+	public int size() {
+		return entries.get();
+	}
+
+	/**
+	 * @return number of words, summed over the cached sentences
+	 */
+	public long weight() {
+		return weight.get();
+	}
+
+	// Convert cache counters to string
+	public String toString() {
+		long lookups = getHits() + getMisses();
+		return "TagCache: " + size() + " entries, " + weight() + " words, " + getHits() +
+		" hits, " + getMisses() + " misses (" + (lookups == 0 ? 0 : 100 * getHits() /
+		lookups) + "% hit rate), " + getEvictions() + " evictions";
+	}
+
+	/**
+	 * If the model has moved on, everything cached is stale
+	 */
+	private void checkVersion(long modelVersion) {
+		if (modelVersion != version) {
+			synchronized (this) {
+				if (modelVersion > version) {
+					clear();
+					version = modelVersion;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return index of the segment responsible for the key
+	 */
+	private int segmentIndex(Key key) {
+		int hash = key.hash ^ (key.hash >>> 16);
+		return hash & (segments.length - 1);
+	}
+
+	/**
+	 * Word ID sequence with its hash worked out once
+	 */
+	private static class Key {
+		private int[] wordIds;    // Word IDs of the sentence
+		private int hash;         // Hash of the word IDs
+
+		public Key(int[] wordIds) {
+			this.wordIds = wordIds; this.hash = Arrays.hashCode(wordIds);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object other) {
+			return other instanceof Key && ((Key) other).hash == hash &&
+			Arrays.equals(((Key) other).wordIds, wordIds);
+		}
+	}
+
+	/**
+	 * Cached tags and the model version that produced them
+	 */
+	private static class Entry {
+		private long version;     // Model version of the tags
+		private String[] tags;    // Tags for the sentence
+
+		public Entry(long version, String[] tags) {
+			this.version = version; this.tags = tags;
+		}
+	}
+
+	/**
+	 * One locked part of the cache, kept in least-recently-used order
+	 * Keeps the cache-wide entry and weight totals up to date.
+	 */
+	private class Segment {
+		private LinkedHashMap<Key, Entry> segmentEntries;    // Entries, least recently used first
+		private long segmentWeight;                          // Words held in this segment
+
+		public Segment() {
+			// Access order, so a lookup moves the entry to the back
+			segmentEntries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+		}
+
+		public synchronized String[] get(Key key, long modelVersion) {
+			Entry entry = segmentEntries.get(key);
+			if (entry == null || entry.version != modelVersion) {
+				return null;
+			}
+			return entry.tags;
+		}
+
+		public synchronized void put(Key key, Entry entry) {
+			if (segmentEntries.put(key, entry) == null) {
+				// New sentence, rather than new tags for one already held
+				int entryWeight = key.wordIds.length;
+				segmentWeight += entryWeight;
+				weight.addAndGet(entryWeight);
+				entries.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Evict the least recently used entry
+		 * @param keep key not to evict, or null
+		 * @return whether an entry was evicted
+		 */
+		public synchronized boolean evictEldest(Key keep) {
+			if (segmentEntries.isEmpty()) {
+				return false;
+			}
+			Iterator<Map.Entry<Key, Entry>> eldest = segmentEntries.entrySet().iterator();
+			Key key = eldest.next().getKey();
+			if (key.equals(keep)) {
+				// Only the entry just added is left
+				return false;
+			}
+			eldest.remove();
+			segmentWeight -= key.wordIds.length;
+			weight.addAndGet(-key.wordIds.length);
+			entries.decrementAndGet();
+			evictions.incrementAndGet();
+			return true;
+		}
+
+		public synchronized void clear() {
+			weight.addAndGet(-segmentWeight);
+			entries.addAndGet(-segmentEntries.size());
+			segmentEntries.clear();
+			segmentWeight = 0;
+		}
+	}
+}
@@ -0,0 +1,378 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import com.sun.net.httpserver.*;
+
+/**
+ * Local HTTP service that keeps one trained POSTagger warm
+ * Sentences from concurrent requests are collected into small batches
+ * (up to maxBatch sentences, waiting at most maxWait for a batch to fill)
+ * and tagged on a pool of worker threads.
+ *
+ *   POST /tag     one sentence per line; answers one line of tags per sentence
+ *   GET  /stats   queue depth, batch sizes and p50/p99 latency
+ *
+ * The server only listens on localhost. A request gets no answer after
+ * REQUEST_TIMEOUT_MILLIS or once the service stops; it is answered 503.
+ * @author Matt Krantz
+ *
+ */
+public class TaggingService {
+	static final int LATENCY_SAMPLES = 10000;       // Recent latencies kept for percentiles
+	static final long REQUEST_TIMEOUT_MILLIS = 30000;    // Longest a request waits for its tags
+	static final int STOP_GRACE_SECONDS = 1;             // Longest stop() waits for answers to go out
+
+	private POSTagger tagger;                       // Trained model shared by every worker
+	private int maxBatch;                           // Most sentences tagged in one batch
+	private long maxWaitNanos;                      // Longest a sentence waits for its batch to fill
+
+	private LinkedBlockingQueue<Request> queue;     // Sentences waiting to be batched
+	private ExecutorService workers;                // Threads that tag batches
+	private Thread batcher;                         // Thread that forms the batches
+	private HttpServer server;                      // Accepts requests
+	private volatile boolean running;               // Still accepting work?
+
+	private AtomicLong sentences = new AtomicLong();    // Sentences tagged
+	private AtomicLong batches = new AtomicLong();      // Batches tagged
+	private long[] latencies;                           // Ring of recent latencies, in nanoseconds
+	private long latencyCount;                          // Latencies recorded so far
+
+	/**
+	 * A sentence waiting for its tags
+	 */
+	private static class Request {
+		private String sentence;                                  // Sentence to tag
+		private long enqueued;                                    // When it arrived, System.nanoTime()
+		private CompletableFuture<ArrayList<String>> tags;        // Filled in once tagged
+
+		public Request(String sentence) {
+			this.sentence = sentence; this.enqueued = System.nanoTime();
+			this.tags = new CompletableFuture<ArrayList<String>>();
+		}
+	}
+
+	/**
+	 * Service around an already trained tagger
+	 * @param tagger trained model; only read from here on
+	 * @param maxBatch most sentences tagged in one batch
+	 * @param maxWaitMillis longest a sentence waits for its batch to fill
+	 * @param numWorkers threads to tag batches on
+	 */
+	public TaggingService(POSTagger tagger, int maxBatch, long maxWaitMillis, int numWorkers) {
+		if (maxBatch < 1 || maxWaitMillis < 0 || numWorkers < 1) {
+			throw new IllegalArgumentException("Bad service settings: batch " + maxBatch +
+			", wait " + maxWaitMillis + " ms, " + numWorkers + " workers");
+		}
+		this.tagger = tagger;
+		this.maxBatch = maxBatch;
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		queue = new LinkedBlockingQueue<Request>();
+		workers = Executors.newFixedThreadPool(numWorkers);
+		latencies = new long[LATENCY_SAMPLES];
+	}
+
+	/**
+	 * Start listening on localhost
+	 * @param port port to listen on, 0 for any free port
+	 * @return port actually listened on
+	 */
+	public int start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+		port), 0);
+		server.createContext("/tag", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleTag(exchange);
+			}
+		});
+		server.createContext("/stats", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, 200, stats());
+			}
+		});
+		// Handler threads mostly wait on batches, so let them grow as needed
+		server.setExecutor(Executors.newCachedThreadPool());
+
+		running = true;
+		batcher = new Thread(new Runnable() {
+			public void run() {
+				formBatches();
+			}
+		}, "batcher");
+		batcher.setDaemon(true);
+		batcher.start();
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stop accepting requests, finish the batches already started, and
+	 * fail every sentence still waiting for a batch
+	 */
+	public void stop() {
+		running = false;
+		batcher.interrupt();
+		// Batches already being tagged finish; the ones still waiting for a worker fail
+		for (Runnable waiting: workers.shutdownNow()) {
+			fail(((BatchTask) waiting).batch);
+		}
+		ArrayList<Request> leftovers = new ArrayList<Request>();
+		queue.drainTo(leftovers);
+		fail(leftovers);
+		// Give the handlers a moment to send their answers before closing
+		server.stop(STOP_GRACE_SECONDS);
+		((ExecutorService) server.getExecutor()).shutdown();
+	}
+	
+	/**
+	 * Answer every request in the list with an error, since the service
+	 * is shutting down
+	 */
+	private static void fail(List<Request> requests) {
+		for (Request request: requests) {
+			request.tags.completeExceptionally(new RejectedExecutionException(
+			"Service is shutting down"));
+		}
+	}
+
+	/**
+	 * Tag the sentences in a request body, one per line
+	 */
+	private void handleTag(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("POST")) {
+			respond(exchange, 405, "Use POST with one sentence per line\n");
+			return;
+		}
+		// Read the sentences
+		ArrayList<Request> requests = new ArrayList<Request>();
+		BufferedReader body = new BufferedReader(new InputStreamReader(
+		exchange.getRequestBody(), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = body.readLine()) != null) {
+				requests.add(new Request(line));
+			}
+		}
+		finally {
+			body.close();
+		}
+		if (requests.isEmpty()) {
+			respond(exchange, 400, "No sentences to tag\n");
+			return;
+		}
+
+		if (!running) {
+			respond(exchange, 503, "Service is shutting down\n");
+			return;
+		}
+		
+		// Queue them all, then wait for every one to be tagged, up to the timeout
+		queue.addAll(requests);
+		if (!running) {
+			// stop() may have drained the queue before these went in, and
+			// nothing else will take them now
+			ArrayList<Request> leftovers = new ArrayList<Request>();
+			queue.drainTo(leftovers);
+			fail(leftovers);
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(
+		REQUEST_TIMEOUT_MILLIS);
+		StringBuilder response = new StringBuilder();
+		try {
+			for (Request request: requests) {
+				for (String tag: request.tags.get(deadline - System.nanoTime(), 
+				TimeUnit.NANOSECONDS)) {
+					response.append(tag).append(' ');
+				}
+				response.append('\n');
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, "Service is shutting down\n");
+			return;
+		}
+		catch (TimeoutException e) {
+			respond(exchange, 503, "Timed out waiting for tags\n");
+			return;
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RejectedExecutionException) {
+				respond(exchange, 503, "Service is shutting down\n");
+			}
+			else {
+				respond(exchange, 500, "Tagging failed: " + e.getCause() + "\n");
+			}
+			return;
+		}
+		respond(exchange, 200, response.toString());
+	}
+
+	/**
+	 * Send a plain text response and close the exchange
+	 */
+	private static void respond(HttpExchange exchange, int status, String text)
+	throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Batcher loop: wait for a sentence, then keep collecting until the
+	 * batch is full or the first sentence has waited maxWait
+	 */
+	private void formBatches() {
+		while (running) {
+			ArrayList<Request> batch = new ArrayList<Request>(maxBatch);
+			try {
+				batch.add(queue.take());
+				long deadline = batch.get(0).enqueued + maxWaitNanos;
+				while (batch.size() < maxBatch) {
+					// Take whatever is already waiting, then wait out the deadline
+					if (queue.drainTo(batch, maxBatch - batch.size()) > 0) {
+						continue;
+					}
+					long remaining = deadline - System.nanoTime();
+					Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) :
+					null;
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+				workers.execute(new BatchTask(batch));
+			}
+			catch (InterruptedException e) {
+				// Stopping; the batch being formed will never be tagged
+				fail(batch);
+				return;
+			}
+			catch (RejectedExecutionException e) {
+				// Workers already shut down
+				fail(batch);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * A batch waiting for a worker
+	 */
+	private class BatchTask implements Runnable {
+		private ArrayList<Request> batch;    // Sentences to tag
+		
+		public BatchTask(ArrayList<Request> batch) {
+			this.batch = batch;
+		}
+		
+		public void run() {
+			tagBatch(batch);
+		}
+	}
+	
+	/**
+	 * Tag every sentence in a batch and hand back the results
+	 */
+	private void tagBatch(ArrayList<Request> batch) {
+		for (Request request: batch) {
+			try {
+				request.tags.complete(tagger.tag(request.sentence));
+			}
+			catch (RuntimeException e) {
+				request.tags.completeExceptionally(e);
+			}
+			finally {
+				recordLatency(System.nanoTime() - request.enqueued);
+			}
+		}
+		sentences.addAndGet(batch.size());
+		batches.incrementAndGet();
+	}
+
+	/**
+	 * Remember a latency, overwriting the oldest once the ring is full
+	 */
+	private synchronized void recordLatency(long nanos) {
+		latencies[(int) (latencyCount % latencies.length)] = nanos;
+		latencyCount++;
+	}
+
+	/**
+	 * @return the latency below which the given fraction of recent sentences
+	 * finished, in milliseconds
+	 */
+	private synchronized double latencyPercentile(double fraction) {
+		int samples = (int) Math.min(latencyCount, latencies.length);
+		if (samples == 0) {
+			return 0.0;
+		}
+		long[] sorted = Arrays.copyOf(latencies, samples);
+		Arrays.sort(sorted);
+		return sorted[Math.min(samples - 1, (int) (fraction * samples))] / 1e6;
+	}
+
+	/**
+	 * @return current statistics, one per line
+	 */
+	public String stats() {
+		long numBatches = batches.get();
+		return "queue_depth " + queue.size() + "\n" +
+		"sentences " + sentences.get() + "\n" +
+		"batches " + numBatches + "\n" +
+		"mean_batch_size " + (numBatches == 0 ? 0.0 : (double) sentences.get() / numBatches) +
+		"\n" +
+		"latency_p50_ms " + latencyPercentile(0.50) + "\n" +
+		"latency_p99_ms " + latencyPercentile(0.99) + "\n" +
+		(tagger.cache == null ? "" : tagger.cache + "\n");
+	}
+
+	/**
+	 * Main method: train on the whole corpus, then serve
+	 * Arguments (all optional): port, max batch size, max wait in
+	 * milliseconds, number of worker threads
+	 */
+	public static void main(String[] args) {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		int maxBatch = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+		long maxWaitMillis = args.length > 2 ? Long.parseLong(args[2]) : 2;
+		int numWorkers = args.length > 3 ? Integer.parseInt(args[3]) :
+		Runtime.getRuntime().availableProcessors();
+
+		POSTagger tagger = new POSTagger();
+		try {
+			tagger.load();
+		}
+		catch (IOException e) {
+			System.err.println("Either no such file or directory exists, or "
+			+ "the file is corrupt!");
+			return;
+		}
+		tagger.setCompact(true);
+		tagger.train();
+		
+		TaggingService service = new TaggingService(tagger, maxBatch, maxWaitMillis, 
+		numWorkers);
+		try {
+			port = service.start(port);
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't listen on port " + port + ": " + e.getMessage());
+			service.workers.shutdown();
+			return;
+		}
+		System.out.println("Tagging on http://localhost:" + port + "/tag (stats at " +
+		"/stats); batches of up to " + maxBatch + ", waiting at most " + maxWaitMillis +
+		" ms, on " + numWorkers + " workers");
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Splits a sentence on spaces and resolves each token to its vocabulary
+ * ID in place, without building a String per token
+ * Splits the same way as String.split(" "): empty tokens between
+ * neighboring spaces are kept, and trailing ones are dropped.
+ * @author Matt Krantz
+ *
+ */
+public class Tokenizer {
+	/**
+	 * Count the tokens in a sentence
+	 * @param text sentence to split
+	 * @return number of tokens
+	 */
+	public static int countTokens(CharSequence text) {
+		// An empty sentence is one empty token
+		if (text.length() == 0) {
+			return 1;
+		}
+		int end = contentEnd(text);
+		// Nothing but spaces means no tokens at all
+		if (end == 0) {
+			return 0;
+		}
+		// One more token than there are spaces before the last one
+		int tokens = 1;
+		for (int i = 0; i < end; i++) {
+			if (text.charAt(i) == ' ') {
+				tokens++;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Split a sentence and look up each token
+	 * @param text sentence to tag
+	 * @param vocabulary words the model knows
+	 * @return vocabulary ID of each token, Vocabulary.NOT_FOUND if unknown
+	 */
+	public static int[] wordIds(CharSequence text, Vocabulary vocabulary) {
+		int[] ids = new int[countTokens(text)];
+		// Scan the sentence once, looking up each token as its end is found
+		int start = 0;    // Where the current token begins
+		int end = contentEnd(text);
+		for (int i = 0, k = 0; k < ids.length; i++) {
+			if (i == end || text.charAt(i) == ' ') {
+				ids[k++] = vocabulary.lookup(text, start, i);
+				start = i + 1;
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Look up tokens that have already been split
+	 * @param words tokens of the sentence
+	 * @param vocabulary words the model knows
+	 * @return vocabulary ID of each token, Vocabulary.NOT_FOUND if unknown
+	 */
+	public static int[] wordIds(String[] words, Vocabulary vocabulary) {
+		int[] ids = new int[words.length];
+		for (int i = 0; i < words.length; i++) {
+			ids[i] = vocabulary.lookup(words[i]);
+		}
+		return ids;
+	}
+
+	/**
+	 * @return index just past the last character that isn't a space
+	 */
+	private static int contentEnd(CharSequence text) {
+		int end = text.length();
+		while (end > 0 && text.charAt(end - 1) == ' ') {
+			end--;
+		}
+		return end;
+	}
+}
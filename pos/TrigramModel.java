@@ -0,0 +1,217 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Second-order transition probabilities P(tag3 | tag1, tag2), smoothed
+ * by linear interpolation with the bigram and unigram estimates
+ * The interpolation weights are set by deleted interpolation: each
+ * trigram in the training data votes, with its count, for whichever
+ * estimate predicts it best once that trigram itself is left out.
+ * Only histories (tag1, tag2) seen in training get a row of scores of
+ * their own; any other history falls back to a row of the bigram and
+ * unigram terms for tag2, shared by every tag1. So the tables grow with
+ * the square of the tag count, not the cube. Tags are indexed by ID,
+ * with an extra ID (numTags) standing for "#" before the start of a sentence.
+ * @author Matt Krantz
+ *
+ */
+public class TrigramModel {
+	private int numTags;             // Number of real tags; ID numTags is "#"
+	private double[][] rows;         // Log P(tag3 | tag1, tag2) for each seen history, see history()
+	private double[][] backoffRows;  // Log P(tag3 | tag2) part alone, for unseen histories
+	private double[] lambdas;        // Weights of the unigram, bigram and trigram estimates
+
+	/**
+	 * Build the smoothed tables from raw counts
+	 * @param tagNames tag for each tag ID
+	 * @param trigramCounts "tag1 tag2" -> (next tag -> count)
+	 * @param transitionCounts tag -> (next tag -> count), "#" for the start
+	 */
+	public TrigramModel(String[] tagNames, HashMap<String, HashMap<String, Double>> trigramCounts,
+	HashMap<String, HashMap<String, Double>> transitionCounts) {
+		numTags = tagNames.length;
+		int numHistory = numTags + 1;    // Tags that can come before, "#" included
+		HashMap<String, Integer> tagIds = new HashMap<String, Integer>();
+		for (int t = 0; t < numTags; t++) {
+			tagIds.put(tagNames[t], t);
+		}
+		tagIds.put("#", numTags);
+
+		// Every tag either starts a sentence or follows another, so the
+		// transition counts also give how often each tag appears
+		double[] unigrams = new double[numTags];
+		double[] bigrams = new double[numHistory * numTags];
+		double[] bigramHistories = new double[numHistory];
+		double total = 0;
+		for (String tag2: transitionCounts.keySet()) {
+			int t2 = tagIds.get(tag2);
+			for (String tag3: transitionCounts.get(tag2).keySet()) {
+				int t3 = tagIds.get(tag3);
+				double count = transitionCounts.get(tag2).get(tag3);
+				unigrams[t3] += count; total += count;
+				bigrams[t2 * numTags + t3] += count;
+				bigramHistories[t2] += count;
+			}
+		}
+		// Trigram counts, one row per history seen (filled with scores later)
+		rows = new double[numHistory * numHistory][];
+		double[] trigramHistories = new double[numHistory * numHistory];
+		for (String history: trigramCounts.keySet()) {
+			// History is the two previous tags, separated by a space
+			String[] tags = history.split(" ");
+			int h = history(tagIds.get(tags[0]), tagIds.get(tags[1]));
+			if (rows[h] == null) {
+				rows[h] = new double[numTags];
+			}
+			for (String tag3: trigramCounts.get(history).keySet()) {
+				double count = trigramCounts.get(history).get(tag3);
+				rows[h][tagIds.get(tag3)] += count;
+				trigramHistories[h] += count;
+			}
+		}
+
+		// Deleted interpolation: leave each trigram out, see which estimate wins
+		lambdas = new double[3];
+		for (int h = 0; h < rows.length; h++) {
+			if (rows[h] == null) {
+				continue;
+			}
+			int t2 = h % numHistory;
+			for (int t3 = 0; t3 < numTags; t3++) {
+				double count = rows[h][t3];
+				if (count == 0) {
+					continue;
+				}
+				double[] estimates = {
+					ratio(unigrams[t3] - 1, total - 1),
+					ratio(bigrams[t2 * numTags + t3] - 1, bigramHistories[t2] - 1),
+					ratio(count - 1, trigramHistories[h] - 1)
+				};
+				int best = 0;
+				for (int k = 1; k < 3; k++) {
+					if (estimates[k] > estimates[best]) {
+						best = k;
+					}
+				}
+				lambdas[best] += count;
+			}
+		}
+		double lambdaTotal = lambdas[0] + lambdas[1] + lambdas[2];
+		for (int k = 0; k < 3; k++) {
+			// With no trigrams at all, weigh the estimates equally
+			lambdas[k] = lambdaTotal == 0 ? 1.0 / 3 : lambdas[k] / lambdaTotal;
+		}
+
+		// Interpolated log probabilities: the unigram and bigram terms alone
+		// for unseen histories, all three for the histories seen
+		backoffRows = new double[numHistory][numTags];
+		for (int t2 = 0; t2 < numHistory; t2++) {
+			for (int t3 = 0; t3 < numTags; t3++) {
+				backoffRows[t2][t3] = Math.log(backoff(unigrams, bigrams, bigramHistories,
+				total, t2, t3));
+			}
+		}
+		for (int h = 0; h < rows.length; h++) {
+			if (rows[h] == null) {
+				continue;
+			}
+			int t2 = h % numHistory;
+			for (int t3 = 0; t3 < numTags; t3++) {
+				rows[h][t3] = Math.log(backoff(unigrams, bigrams, bigramHistories, total, t2, t3) +
+				lambdas[2] * ratio(rows[h][t3], trigramHistories[h]));
+			}
+		}
+	}
+
+	/**
+	 * @return weighted unigram and bigram estimates of tag3 following tag2
+	 */
+	private double backoff(double[] unigrams, double[] bigrams, double[] bigramHistories,
+	double total, int tag2, int tag3) {
+		return lambdas[0] * ratio(unigrams[tag3], total) +
+		lambdas[1] * ratio(bigrams[tag2 * numTags + tag3], bigramHistories[tag2]);
+	}
+
+	/**
+	 * Log probability of tag3 following tag1, tag2
+	 * @param tag1 tag two back, or start() before the sentence
+	 * @param tag2 previous tag, or start() before the sentence
+	 * @param tag3 next tag
+	 */
+	public double score(int tag1, int tag2, int tag3) {
+		return row(tag1, tag2)[tag3];
+	}
+
+	/**
+	 * Log probabilities of every tag following tag1, tag2; for looking up
+	 * many next tags after the same history. Not to be modified.
+	 * @param tag1 tag two back, or start() before the sentence
+	 * @param tag2 previous tag, or start() before the sentence
+	 */
+	public double[] row(int tag1, int tag2) {
+		double[] row = rows[history(tag1, tag2)];
+		return row != null ? row : backoffRows[tag2];
+	}
+
+	/**
+	 * @return tag ID used for "#", before the start of a sentence
+	 */
+	public int start() {
+		return numTags;
+	}
+
+	// Convert the interpolation weights to string
+	public String toString() {
+		return "TrigramModel: " + numTags + " tags, weights unigram " + lambdas[0] +
+		", bigram " + lambdas[1] + ", trigram " + lambdas[2];
+	}
+
+	/**
+	 * @return index of the history (tag1, tag2) in rows
+	 */
+	private int history(int tag1, int tag2) {
+		return tag1 * (numTags + 1) + tag2;
+	}
+
+	/**
+	 * @return numerator / denominator, or 0 if there's nothing to divide by
+	 */
+	private static double ratio(double numerator, double denominator) {
+		return denominator > 0 ? numerator / denominator : 0.0;
+	}
+
+	/**
+	 * Main method to compare the bigram and trigram modes: trains each on
+	 * four fifths of the corpus, then tags the other fifth
+	 */
+	public static void main(String[] args) {
+		POSTagger tagger = new POSTagger();
+		try {
+			tagger.load();
+		}
+		catch (IOException e) {
+			System.err.println("Either no such file or directory exists, or "
+			+ "the file is corrupt!");
+			return;
+		}
+		// Hold out every fifth line
+		ArrayList<String[]> trainWords = new ArrayList<String[]>();
+		ArrayList<String[]> trainTags = new ArrayList<String[]>();
+		ArrayList<String[]> testWords = new ArrayList<String[]>();
+		ArrayList<String[]> testTags = new ArrayList<String[]>();
+		Evaluation.split(tagger.corpusWords, tagger.corpusTags, 5, trainWords, trainTags,
+		testWords, testTags);
+
+		for (int order = 2; order <= 3; order++) {
+			tagger.setOrder(order);
+			tagger.train(trainWords, trainTags, trainWords.size());
+			Evaluation evaluation = Evaluation.warmEvaluate(tagger, testWords, testTags);
+			System.out.println((order == 2 ? "Bigram" : "Trigram") + ": " +
+			evaluation.accuracy() + "% accurate, " + (int) evaluation.sentencesPerSecond() +
+			" sentences/sec, " + (int) evaluation.tokensPerSecond() + " tokens/sec");
+			if (order == 3) {
+				System.out.println(tagger.trigramModel);
+			}
+		}
+	}
+}
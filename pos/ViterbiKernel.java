@@ -0,0 +1,50 @@
+/**
+ * Inner step of bigram Viterbi tagging: a max-plus product of the
+ * previous word's scores with the transition matrix
+ * For each next tag j, finds the best previous tag i for
+ * prevScores[i] + transitions[i][j], taking the lowest such i on ties so
+ * every kernel gives exactly the same tags.
+ * @author Matt Krantz
+ *
+ */
+public abstract class ViterbiKernel {
+	/**
+	 * For each next tag j, bestScores[j] = max over i of
+	 * prevScores[i] + transitions[i][j], and backTrace[j] = that i
+	 * If every sum is -infinity, bestScores[j] is -infinity and
+	 * backTrace[j] is -1.
+	 * @param prevScores best score ending in each tag at the previous word
+	 * @param transitions transition scores, [previous tag][next tag]
+	 * @param bestScores best score into each next tag, overwritten
+	 * @param backTrace best previous tag for each next tag, overwritten
+	 */
+	public abstract void maxPlus(double[] prevScores, double[][] transitions, 
+	double[] bestScores, int[] backTrace);
+	
+	/**
+	 * @return kernel written with plain loops
+	 */
+	public static ViterbiKernel scalar() {
+		return new ScalarViterbiKernel();
+	}
+	
+	/**
+	 * Kernel using SIMD instructions through the Vector API, if the JVM was
+	 * started with --add-modules jdk.incubator.vector; otherwise the
+	 * scalar kernel
+	 */
+	public static ViterbiKernel fastest() {
+		try {
+			// Loaded by name, so this class works without the module
+			return (ViterbiKernel) Class.forName("VectorViterbiKernel").
+			getDeclaredConstructor().newInstance();
+		}
+		catch (Exception e) {
+			return scalar();
+		}
+		catch (LinkageError e) {
+			// The Vector API isn't available in this JVM
+			return scalar();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+import java.util.*;
+
+/**
+ * Maps lower case words to whole-number IDs
+ * Open-addressing hash table that can look a word up straight out of a
+ * larger CharSequence (folding case as it goes), so tagging never has to
+ * build a lower case String for each token. Upper and lower case are
+ * folded one char at a time with Character.toLowerCase, which matches
+ * String.toLowerCase for everything but a few special characters.
+ * @author Matt Krantz
+ *
+ */
+public class Vocabulary {
+	static final int NOT_FOUND = -1;          // ID returned for a word we haven't seen
+
+	private String[] words;                   // Word for each ID
+	private int[] hashes;                     // Hash of each word, by ID
+	private int[] slots;                      // Table of (ID + 1), 0 for an empty slot
+	private int size;                         // Number of words stored
+
+	/**
+	 * Vocabulary holding the given words, with IDs in the order given
+	 * @param wordList lower case words, no duplicates
+	 */
+	public Vocabulary(Collection<String> wordList) {
+		words = new String[Math.max(wordList.size(), 1)];
+		hashes = new int[words.length];
+		// Keep the table at most half full so probes stay short
+		int capacity = 2;
+		while (capacity < words.length * 2) {
+			capacity *= 2;
+		}
+		slots = new int[capacity];
+		for (String word: wordList) {
+			add(word);
+		}
+	}
+
+	/**
+	 * Add a word and give it the next ID
+	 * @param word lower case word
+	 * @return ID of the word
+	 */
+	private int add(String word) {
+		int hash = hash(word, 0, word.length());
+		int slot = hash & (slots.length - 1);
+		// Walk forward to the first empty slot
+		while (slots[slot] != 0) {
+			slot = (slot + 1) & (slots.length - 1);
+		}
+		words[size] = word; hashes[size] = hash;
+		slots[slot] = ++size;
+		return size - 1;
+	}
+
+	/**
+	 * Look up text[start, end), ignoring case
+	 * @return ID of the word, or NOT_FOUND
+	 */
+	public int lookup(CharSequence text, int start, int end) {
+		int hash = hash(text, start, end);
+		int slot = hash & (slots.length - 1);
+		// Probe until we hit the word or an empty slot
+		while (slots[slot] != 0) {
+			int id = slots[slot] - 1;
+			if (hashes[id] == hash && matches(words[id], text, start, end)) {
+				return id;
+			}
+			slot = (slot + 1) & (slots.length - 1);
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Look up a whole word, ignoring case
+	 * @return ID of the word, or NOT_FOUND
+	 */
+	public int lookup(CharSequence word) {
+		return lookup(word, 0, word.length());
+	}
+
+	/**
+	 * @return the word with the given ID
+	 */
+	public String get(int id) {
+		return words[id];
+	}
+
+	/**
+	 * @return number of words in the vocabulary
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Hash text[start, end) as if it were lower case
+	 */
+	private static int hash(CharSequence text, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + Character.toLowerCase(text.charAt(i));
+		}
+		// Spread the bits so nearby words don't crowd into nearby slots
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Is word equal to text[start, end) once case is folded?
+	 */
+	private static boolean matches(String word, CharSequence text, int start, int end) {
+		if (word.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			if (word.charAt(i) != Character.toLowerCase(text.charAt(start + i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,183 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+import org.openjdk.jmh.profile.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * JMH benchmarks for POSTagger: parsing the corpus, training on all of
+ * it, cross-validating, tagging single sentences of different lengths,
+ * and tagging a batch of sentences
+ * Corpus fixtures are loaded once per trial. Run from the pos directory
+ * (load() reads inputs/ relative to it); main() turns on the GC
+ * profiler, which reports allocation per operation.
+ * @author Matt Krantz
+ *
+ */
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class POSTaggerBenchmark {
+	static final int BATCH_SIZE = 1000;    // Sentences tagged per batch operation
+	
+	/**
+	 * Corpus loaded once per trial, not yet trained
+	 */
+	@State(Scope.Benchmark)
+	public static class Corpus {
+		POSTagger tagger;    // Holds the parsed corpus
+		
+		@Setup(Level.Trial)
+		public void load() throws IOException {
+			tagger = new POSTagger();
+			tagger.load();
+		}
+	}
+	
+	/**
+	 * Model trained on the whole corpus once per trial
+	 */
+	@State(Scope.Benchmark)
+	public static class Model {
+		@Param({"2", "3"})
+		int order;               // Bigram or trigram model
+		
+		POSTagger tagger;        // Trained model
+		String[] batch;          // Sentences for batch tagging
+		
+		@Setup(Level.Trial)
+		public void train() throws IOException {
+			tagger = new POSTagger();
+			tagger.load();
+			tagger.setOrder(order);
+			tagger.setCompact(true);
+			tagger.train();
+			// Every so many lines of the corpus, as typed-in sentences
+			batch = new String[BATCH_SIZE];
+			int step = Math.max(1, tagger.corpusWords.size() / BATCH_SIZE);
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				batch[i] = join(tagger.corpusWords.get((i * step) % tagger.corpusWords.size()));
+			}
+		}
+	}
+	
+	/**
+	 * Sentences of one length, built from corpus words, for each thread
+	 */
+	@State(Scope.Thread)
+	public static class Sentences {
+		@Param({"5", "10", "20", "40", "80"})
+		int length;              // Words per sentence
+		
+		String[] sentences;      // Sentences to cycle through
+		int next;                // Next sentence to tag
+		
+		@Setup(Level.Trial)
+		public void build(Model model) {
+			// Run the corpus words together and cut them into sentences
+			ArrayList<String> words = new ArrayList<String>();
+			for (int i = 0; words.size() < 256 * length; i++) {
+				words.addAll(Arrays.asList(model.tagger.corpusWords.get(i)));
+			}
+			sentences = new String[256];
+			for (int i = 0; i < sentences.length; i++) {
+				sentences[i] = join(words.subList(i * length, (i + 1) * length).
+				toArray(new String[length]));
+			}
+		}
+		
+		public String nextSentence() {
+			next = (next + 1) & (sentences.length - 1);
+			return sentences[next];
+		}
+	}
+	
+	/**
+	 * Read and split both corpus files
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public POSTagger load() throws IOException {
+		POSTagger tagger = new POSTagger();
+		tagger.load();
+		return tagger;
+	}
+	
+	/**
+	 * Train on the whole corpus
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public POSTagger train(Corpus corpus) {
+		corpus.tagger.train();
+		return corpus.tagger;
+	}
+	
+	/**
+	 * Five-fold cross-validation over the whole corpus
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 3)
+	public double crossValidate(Corpus corpus) {
+		return corpus.tagger.crossValidate(5, corpus.tagger.corpusWords.size());
+	}
+	
+	/**
+	 * Latency of tagging one sentence, with percentiles
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public ArrayList<String> tagSentence(Model model, Sentences sentences) {
+		return model.tagger.tag(sentences.nextSentence());
+	}
+	
+	/**
+	 * Throughput of tagging a batch of corpus sentences, in sentences/sec
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void tagBatch(Model model, Blackhole blackhole) {
+		for (String sentence: model.batch) {
+			blackhole.consume(model.tagger.tag(sentence));
+		}
+	}
+	
+	/**
+	 * @return words joined with single spaces
+	 */
+	static String join(String[] words) {
+		StringBuilder sentence = new StringBuilder();
+		for (String word: words) {
+			if (sentence.length() > 0) {
+				sentence.append(' ');
+			}
+			sentence.append(word);
+		}
+		return sentence.toString();
+	}
+	
+	/**
+	 * Main method to run every benchmark with the GC profiler
+	 * Arguments, if any, are a regular expression picking benchmarks
+	 */
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+		.include(POSTaggerBenchmark.class.getSimpleName() + "." + 
+		(args.length > 0 ? args[0] : ".*"))
+		.addProfiler(GCProfiler.class)
+		.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,68 @@
+import jdk.incubator.vector.*;
+
+/**
+ * Max-plus Viterbi step using SIMD lanes through the Vector API
+ * Each lane handles one next tag: for a block of next tags, it walks the
+ * previous tags in order, keeping the best score and the first previous
+ * tag that reached it, so no lanes ever have to be combined. Needs
+ * --add-modules jdk.incubator.vector to compile and run; use
+ * ViterbiKernel.fastest() to fall back to scalar code without it.
+ * @author Matt Krantz
+ *
+ */
+public class VectorViterbiKernel extends ViterbiKernel {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	
+	// Back pointers are kept as doubles in the lanes, then copied out through
+	// this buffer; one per thread, so a step allocates nothing
+	private static final ThreadLocal<double[]> stateBuffers = new ThreadLocal<double[]>() {
+		protected double[] initialValue() {
+			return new double[SPECIES.length()];
+		}
+	};
+	
+	public void maxPlus(double[] prevScores, double[][] transitions, double[] bestScores, 
+	int[] backTrace) {
+		int numTags = prevScores.length;
+		int numNext = bestScores.length;
+		int lanes = SPECIES.length();
+		int vectorEnd = SPECIES.loopBound(numNext);
+		double[] stateBuffer = stateBuffers.get();
+		
+		for (int next = 0; next < vectorEnd; next += lanes) {
+			DoubleVector best = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+			DoubleVector bestState = DoubleVector.broadcast(SPECIES, -1.0);
+			for (int state = 0; state < numTags; state++) {
+				DoubleVector scores = DoubleVector.fromArray(SPECIES, transitions[state], next).
+				add(prevScores[state]);
+				// Strictly better only, so the first state to reach the best wins
+				VectorMask<Double> better = scores.compare(VectorOperators.GT, best);
+				best = best.blend(scores, better);
+				bestState = bestState.blend(DoubleVector.broadcast(SPECIES, state), better);
+			}
+			best.intoArray(bestScores, next);
+			bestState.intoArray(stateBuffer, 0);
+			for (int lane = 0; lane < lanes; lane++) {
+				backTrace[next + lane] = (int) stateBuffer[lane];
+			}
+		}
+		// Finish the next tags that don't fill a whole vector
+		for (int next = vectorEnd; next < numNext; next++) {
+			double bestScore = Double.NEGATIVE_INFINITY;
+			int bestState = -1;
+			for (int state = 0; state < numTags; state++) {
+				double score = prevScores[state] + transitions[state][next];
+				if (score > bestScore) {
+					bestScore = score; bestState = state;
+				}
+			}
+			bestScores[next] = bestScore;
+			backTrace[next] = bestState;
+		}
+	}
+	
+	// Name of the kernel
+	public String toString() {
+		return "vector (" + SPECIES.length() + " lanes)";
+	}
+}